@@ -0,0 +1,114 @@
+import bearmaps.bench.Targets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Implements the benchmark targets over the proj3 classes, which it can reach from the
+ * default package. Created reflectively by Targets.create().
+ */
+public class ProjectTargets implements Targets {
+    /* range of the window widths of raster requests, in pixels */
+    private static final double MIN_QUERY_WIDTH_PX = 256, MAX_QUERY_WIDTH_PX = 1280;
+
+    private final Rasterer rasterer = new Rasterer();
+    private GraphDB graph;
+
+    public ProjectTargets() {
+    }
+
+    @Override
+    public Object parseGraph(String osmPath) {
+        return new GraphDB(osmPath);
+    }
+
+    @Override
+    public Object importGraph(String osmPath) throws IOException {
+        return new OsmImporter().importGraph(osmPath);
+    }
+
+    @Override
+    public void load(String osmPath) throws IOException {
+        graph = new OsmImporter().importGraph(osmPath);
+        for (Metric metric : Metric.values()) {
+            graph.contractionHierarchy(metric);
+            graph.landmarks(metric);
+        }
+        graph.autocompleteIndex();
+    }
+
+    @Override
+    public double[][] randomLocations(int n, long seed) {
+        Random r = new Random(seed);
+        CompactGraph cg = graph.compactGraph();
+        double[][] locations = new double[n][];
+        for (int i = 0; i < n; i++) {
+            long v = cg.id(r.nextInt(cg.numVertices()));
+            locations[i] = new double[]{graph.lon(v), graph.lat(v)};
+        }
+        return locations;
+    }
+
+    @Override
+    public List<Map<String, Double>> randomRasterQueries(int n, long seed) {
+        Random r = new Random(seed);
+        double rootWidth = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+        double rootHeight = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+        List<Map<String, Double>> queries = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            /* zoomed in by 1 to 2^8 */
+            double scale = Math.pow(2, -8 * r.nextDouble());
+            double w = MIN_QUERY_WIDTH_PX + r.nextDouble()
+                    * (MAX_QUERY_WIDTH_PX - MIN_QUERY_WIDTH_PX);
+            double h = w * (0.5 + r.nextDouble() / 2);
+            double width = rootWidth * scale, height = rootHeight * scale * h / w;
+            double ullon = MapServer.ROOT_ULLON + r.nextDouble() * (rootWidth - width);
+            double ullat = MapServer.ROOT_ULLAT - r.nextDouble() * (rootHeight - height);
+            Map<String, Double> params = new HashMap<>();
+            params.put("ullon", ullon);
+            params.put("ullat", ullat);
+            params.put("lrlon", ullon + width);
+            params.put("lrlat", ullat - height);
+            params.put("w", w);
+            params.put("h", h);
+            queries.add(params);
+        }
+        return queries;
+    }
+
+    @Override
+    public long closest(double lon, double lat) {
+        return graph.closest(lon, lat);
+    }
+
+    @Override
+    public List<Long> shortestPath(double stlon, double stlat, double destlon, double destlat,
+                                   String algorithm, String metric) {
+        return Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                Router.Algorithm.valueOf(algorithm), Metric.valueOf(metric));
+    }
+
+    @Override
+    public List<?> routeDirections(List<Long> route) {
+        return Router.routeDirections(graph, route);
+    }
+
+    @Override
+    public Map<String, Object> getMapRaster(Map<String, Double> params) {
+        return rasterer.getMapRaster(params);
+    }
+
+    @Override
+    public List<String> prefixSearch(String prefix, int k) {
+        return graph.getLocationsByPrefix(prefix, k);
+    }
+
+    @Override
+    public List<String> fuzzySearch(String prefix, int k) {
+        return graph.searchLocations(prefix, k);
+    }
+}
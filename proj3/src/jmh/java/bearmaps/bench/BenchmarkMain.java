@@ -0,0 +1,49 @@
+package bearmaps.bench;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that every result comes with its
+ * allocation rate (gc.alloc.rate.norm is bytes per operation) next to its throughput.
+ * The arguments are handed to the JMH command line with -prof gc added, unless they ask
+ * for it already or only list benchmarks, profilers or options. Build and run from proj3
+ * with
+ *
+ *   mvn -P benchmarks package
+ *   java -jar target/benchmarks.jar [JMH options, such as RouterBenchmark or -rf json]
+ */
+public class BenchmarkMain {
+    /* options after which JMH prints something and exits without running benchmarks */
+    private static final List<String> LIST_OPTIONS =
+            Arrays.asList("-l", "-lp", "-lprof", "-lrf", "-h", "-help", "--help");
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Main.main(withGcProfiler(args));
+    }
+
+    /**
+     * Returns args with -prof gc added, unless they name the GC profiler already or hold
+     * one of the listing options.
+     */
+    static String[] withGcProfiler(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (LIST_OPTIONS.contains(args[i])) {
+                return args;
+            }
+            if (args[i].equals("-prof") && i + 1 < args.length
+                    && (args[i + 1].equals("gc") || args[i + 1].startsWith("gc:"))) {
+                return args;
+            }
+        }
+        String[] result = new String[args.length + 2];
+        result[0] = "-prof";
+        result[1] = "gc";
+        System.arraycopy(args, 0, result, 2, args.length);
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package bearmaps.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a GraphDB from the OSM XML, with the SAX handler and with OsmImporter. Each
+ * operation reads the whole map, so there are few of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class GraphDBBenchmark {
+    private Targets targets;
+
+    @Setup
+    public void setUp() {
+        targets = Targets.create();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return targets.parseGraph(Targets.OSM_DB_PATH);
+    }
+
+    @Benchmark
+    public Object importGraph() throws IOException {
+        return targets.importGraph(Targets.OSM_DB_PATH);
+    }
+}
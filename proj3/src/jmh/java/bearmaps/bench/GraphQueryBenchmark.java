@@ -0,0 +1,82 @@
+package bearmaps.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cheaper GraphDB and Router calls behind each request: snapping locations to the
+ * graph, turning routes into directions and searching location names. Inputs are fixed
+ * sets of random locations, routes and typed prefixes, taken in turn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GraphQueryBenchmark {
+    private static final int NUM_INPUTS = 256;
+    private static final long SEED = 62;
+    private static final int SEARCH_LIMIT = 10;
+    /* what a user types on the way to a few Berkeley places, typos included */
+    private static final String[] PREFIXES = {"t", "to", "top", "top d", "mc", "mcd",
+        "mcdon", "st", "sta", "starb", "strab", "ki", "kin", "king", "pe", "pet", "peets",
+        "peetz", "ca", "caf", "cafe", "cafe s", "b", "ber", "berkel", "berkley"};
+
+    private Targets targets;
+    private double[][] locations;
+    private List<List<Long>> routes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        targets = Targets.create();
+        targets.load(Targets.OSM_DB_PATH);
+        locations = targets.randomLocations(NUM_INPUTS, SEED);
+        routes = new ArrayList<>();
+        double[][] ends = targets.randomLocations(2 * NUM_INPUTS, SEED + 1);
+        for (int i = 0; i < NUM_INPUTS; i++) {
+            routes.add(targets.shortestPath(ends[2 * i][0], ends[2 * i][1],
+                    ends[2 * i + 1][0], ends[2 * i + 1][1], "CONTRACTION_HIERARCHY", "DISTANCE"));
+        }
+    }
+
+    private int next(int n) {
+        next = next + 1 >= n ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public long closest() {
+        double[] location = locations[next(NUM_INPUTS)];
+        return targets.closest(location[0], location[1]);
+    }
+
+    @Benchmark
+    public List<?> routeDirections() {
+        return targets.routeDirections(routes.get(next(NUM_INPUTS)));
+    }
+
+    @Benchmark
+    public List<String> prefixSearch() {
+        return targets.prefixSearch(PREFIXES[next(PREFIXES.length)], SEARCH_LIMIT);
+    }
+
+    @Benchmark
+    public List<String> fuzzySearch() {
+        return targets.fuzzySearch(PREFIXES[next(PREFIXES.length)], SEARCH_LIMIT);
+    }
+}
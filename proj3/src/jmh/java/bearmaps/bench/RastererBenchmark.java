@@ -0,0 +1,47 @@
+package bearmaps.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rasterer.getMapRaster over a fixed set of random queries at all zoom levels, taken in
+ * turn. Needs no map data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RastererBenchmark {
+    private static final int NUM_QUERIES = 256;
+    private static final long SEED = 63;
+
+    private Targets targets;
+    private List<Map<String, Double>> queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        targets = Targets.create();
+        queries = targets.randomRasterQueries(NUM_QUERIES, SEED);
+    }
+
+    @Benchmark
+    public Map<String, Object> getMapRaster() {
+        next = next + 1 == NUM_QUERIES ? 0 : next + 1;
+        return targets.getMapRaster(queries.get(next));
+    }
+}
@@ -0,0 +1,68 @@
+package bearmaps.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Router.shortestPath with each algorithm and metric over a fixed set of random origin/destination
+ * pairs, so that every run times the same work. Each operation routes the next pair in
+ * turn, including snapping both ends to the graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RouterBenchmark {
+    private static final int NUM_PAIRS = 256;
+    private static final long SEED = 61;
+
+    @Param({"ASTAR", "ALT", "BIDIRECTIONAL_ASTAR", "CONTRACTION_HIERARCHY"})
+    public String algorithm;
+
+    @Param({"DISTANCE", "TIME"})
+    public String metric;
+
+    private Targets targets;
+    private double[][] starts, destinations;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        targets = Targets.create();
+        targets.load(Targets.OSM_DB_PATH);
+        double[][] locations = targets.randomLocations(2 * NUM_PAIRS, SEED);
+        starts = new double[NUM_PAIRS][];
+        destinations = new double[NUM_PAIRS][];
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            starts[i] = locations[2 * i];
+            destinations[i] = locations[2 * i + 1];
+        }
+    }
+
+    private int nextPair() {
+        next = next + 1 == NUM_PAIRS ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public List<Long> shortestPath() {
+        int i = nextPair();
+        return targets.shortestPath(starts[i][0], starts[i][1], destinations[i][0],
+                destinations[i][1], algorithm, metric);
+    }
+}
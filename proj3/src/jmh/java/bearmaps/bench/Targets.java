@@ -0,0 +1,79 @@
+package bearmaps.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The proj3 code under benchmark. Its classes live in the default package, which JMH
+ * benchmark classes cannot be in and other packages cannot import, so the benchmarks
+ * reach them through this interface, implemented by ProjectTargets in the default
+ * package. There is a single implementation, so the JIT inlines the calls.
+ */
+public interface Targets {
+    /**
+     * The map the benchmarks run on, relative to proj3 like in MapServer.
+     */
+    String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+
+    /**
+     * Returns the implementation in the default package.
+     */
+    static Targets create() {
+        try {
+            return (Targets) Class.forName("ProjectTargets").getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ProjectTargets is missing", e);
+        }
+    }
+
+    /**
+     * Returns a new GraphDB parsed with the SAX handler.
+     */
+    Object parseGraph(String osmPath);
+
+    /**
+     * Returns a new GraphDB read by the streaming OsmImporter.
+     */
+    Object importGraph(String osmPath) throws IOException;
+
+    /**
+     * Load the graph the other methods work on, with its contraction hierarchies,
+     * landmarks and autocomplete index already built.
+     */
+    void load(String osmPath) throws IOException;
+
+    /**
+     * Returns n {lon, lat} locations of random vertices of the loaded graph.
+     */
+    double[][] randomLocations(int n, long seed);
+
+    /**
+     * Returns n raster request parameter maps over random parts of the map, at random
+     * zoom levels.
+     */
+    List<Map<String, Double>> randomRasterQueries(int n, long seed);
+
+    long closest(double lon, double lat);
+
+    /**
+     * Returns Router.shortestPath with the named Router.Algorithm and Metric.
+     */
+    List<Long> shortestPath(double stlon, double stlat, double destlon, double destlat,
+                            String algorithm, String metric);
+
+    List<?> routeDirections(List<Long> route);
+
+    Map<String, Object> getMapRaster(Map<String, Double> params);
+
+    /**
+     * Returns the k best location names starting with prefix.
+     */
+    List<String> prefixSearch(String prefix, int k);
+
+    /**
+     * Returns the k best location names starting with about prefix, allowing typos.
+     */
+    List<String> fuzzySearch(String prefix, int k);
+}
@@ -0,0 +1,302 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Ranked prefix search over location names. The names are kept sorted by their cleaned
+ * form, which makes the array an implicit trie: the names below any prefix form one
+ * contiguous range, found with two binary searches. A sparse table over the rank of
+ * each name then gives the best name of any range in constant time, so the top k
+ * completions come out of a small heap of ranges in O(k log k), however many names
+ * share the prefix. Immutable once built.
+ */
+public class AutocompleteIndex {
+    /* fuzzy search takes the first letters of a query as typed, as typos there are rare
+       and allowing them would visit every short prefix in the index */
+    private static final int EXACT_PREFIX_LENGTH = 1;
+
+    /* sorted by clean name, then by name */
+    private final String[] names;
+    private final String[] cleanNames;
+
+    /* position of each name in ranking order, 0 is the best */
+    private final int[] rank;
+
+    /* best[j][i] is the index of the best ranked name in [i, i + 2^j) */
+    private final int[][] best;
+
+    /**
+     * Index some names.
+     *
+     * @param frequency How many locations go by each name; more popular names rank
+     *                  higher, then shorter ones, then alphabetically.
+     */
+    public AutocompleteIndex(Map<String, Integer> frequency) {
+        int n = frequency.size();
+        names = new String[n];
+        cleanNames = new String[n];
+        Integer[] order = new Integer[n];
+        int i = 0;
+        for (String name : frequency.keySet()) {
+            names[i] = name;
+            order[i] = i;
+            i++;
+        }
+        String[] clean = new String[n];
+        for (i = 0; i < n; i++) {
+            clean[i] = GraphDB.cleanString(names[i]);
+        }
+
+        /* lay the names out by clean name */
+        Arrays.sort(order, Comparator.<Integer, String>comparing(k -> clean[k])
+                .thenComparing(k -> names[k]));
+        String[] sortedNames = new String[n];
+        for (i = 0; i < n; i++) {
+            sortedNames[i] = names[order[i]];
+            cleanNames[i] = clean[order[i]];
+        }
+        System.arraycopy(sortedNames, 0, names, 0, n);
+
+        /* rank them by score */
+        Integer[] byScore = new Integer[n];
+        for (i = 0; i < n; i++) {
+            byScore[i] = i;
+        }
+        Arrays.sort(byScore, Comparator.<Integer>comparingInt(k -> -frequency.get(names[k]))
+                .thenComparingInt(k -> cleanNames[k].length())
+                .thenComparing(k -> names[k]));
+        rank = new int[n];
+        for (i = 0; i < n; i++) {
+            rank[byScore[i]] = i;
+        }
+
+        int levels = 1;
+        while ((1 << levels) <= n) {
+            levels += 1;
+        }
+        best = new int[levels][];
+        best[0] = new int[n];
+        for (i = 0; i < n; i++) {
+            best[0][i] = i;
+        }
+        for (int j = 1; j < levels; j++) {
+            int half = 1 << (j - 1);
+            best[j] = new int[n - (1 << j) + 1];
+            for (i = 0; i < best[j].length; i++) {
+                best[j][i] = better(best[j - 1][i], best[j - 1][i + half]);
+            }
+        }
+    }
+
+    private int better(int a, int b) {
+        return rank[a] <= rank[b] ? a : b;
+    }
+
+    /* index of the best ranked name in [lo, hi), which must not be empty */
+    private int bestIn(int lo, int hi) {
+        int j = 31 - Integer.numberOfLeadingZeros(hi - lo);
+        return better(best[j][lo], best[j][hi - (1 << j)]);
+    }
+
+    /* index of the first clean name that is not less than key */
+    private int lowerBound(String key) {
+        int lo = 0, hi = cleanNames.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cleanNames[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the k best ranked names whose cleaned form starts with the cleaned prefix,
+     * best first.
+     */
+    public List<String> topK(String prefix, int k) {
+        List<String> result = new ArrayList<>();
+        if (prefix == null || prefix.isEmpty() || k <= 0) {
+            return result;
+        }
+        String clean = GraphDB.cleanString(prefix);
+        int lo = lowerBound(clean), hi = lowerBound(clean + Character.MAX_VALUE);
+        if (lo >= hi) {
+            return result;
+        }
+
+        /* ranges of not yet returned names, ordered by their best name */
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                Comparator.comparingInt(range -> rank[range[2]]));
+        ranges.add(new int[]{lo, hi, bestIn(lo, hi)});
+        while (!ranges.isEmpty() && result.size() < k) {
+            int[] range = ranges.poll();
+            int m = range[2];
+            result.add(names[m]);
+            if (range[0] < m) {
+                ranges.add(new int[]{range[0], m, bestIn(range[0], m)});
+            }
+            if (m + 1 < range[1]) {
+                ranges.add(new int[]{m + 1, range[1], bestIn(m + 1, range[1])});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of edits fuzzy search allows for a query of some length: none
+     * for the first two letters, one up to five letters, then two.
+     */
+    public static int maxEdits(int length) {
+        return length < 3 ? 0 : length < 6 ? 1 : 2;
+    }
+
+    /**
+     * Returns the k best names whose cleaned form starts with a string within maxEdits
+     * edits (insertions, deletions and substitutions) of the cleaned prefix, and with the
+     * same first letter. Names closer
+     * to the prefix come first, then the better ranked ones, so exact prefix matches
+     * lead the list.
+     */
+    public List<String> fuzzyTopK(String prefix, int maxEdits, int k) {
+        return fuzzy(prefix, maxEdits, k, true);
+    }
+
+    /**
+     * Returns the names whose cleaned form is within maxEdits edits of the cleaned name
+     * and starts with the same letter, closest first, then by rank.
+     */
+    public List<String> fuzzyMatches(String name, int maxEdits) {
+        return fuzzy(name, maxEdits, Integer.MAX_VALUE, false);
+    }
+
+    /*
+     * Walks the implicit trie depth first, running the query through a Levenshtein
+     * automaton: each trie node carries the row of the edit distance table between the
+     * query and the letters on the path to it, and a subtree is skipped as soon as the
+     * smallest entry of its row is too large to ever match, so only a small part of the
+     * names is visited. Matches are collected as ranges of names with their distance,
+     * then drained best first like in topK.
+     */
+    private List<String> fuzzy(String query, int maxEdits, int k, boolean prefix) {
+        List<String> result = new ArrayList<>();
+        if (query == null || query.isEmpty() || k <= 0 || names.length == 0) {
+            return result;
+        }
+        String clean = GraphDB.cleanString(query);
+        int m = clean.length();
+
+        int[][] rows = new int[m + maxEdits + 2][m + 1];
+        for (int j = 0; j <= m; j++) {
+            rows[0][j] = j;
+        }
+        List<int[]> matches = new ArrayList<>();
+        walk(clean, maxEdits, prefix, 0, names.length, 0, rows, maxEdits + 1, matches);
+
+        /* one heap pass per distance; a name can lie in ranges of several distances */
+        Set<Integer> added = new HashSet<>();
+        for (int d = 0; d <= maxEdits && result.size() < k; d++) {
+            PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                    Comparator.comparingInt(range -> rank[range[2]]));
+            for (int[] match : matches) {
+                if (match[2] == d) {
+                    ranges.add(new int[]{match[0], match[1], bestIn(match[0], match[1])});
+                }
+            }
+            while (!ranges.isEmpty() && result.size() < k) {
+                int[] range = ranges.poll();
+                int i = range[2];
+                if (added.add(i)) {
+                    result.add(names[i]);
+                }
+                if (range[0] < i) {
+                    ranges.add(new int[]{range[0], i, bestIn(range[0], i)});
+                }
+                if (i + 1 < range[1]) {
+                    ranges.add(new int[]{i + 1, range[1], bestIn(i + 1, range[1])});
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Visits the trie node of names [lo, hi), which share their first depth letters and
+     * whose automaton row is rows[depth]. In prefix mode, bound is the distance the whole
+     * subtree already matched with, so only closer matches are worth looking for.
+     */
+    private void walk(String query, int maxEdits, boolean prefix, int lo, int hi, int depth,
+                      int[][] rows, int bound, List<int[]> matches) {
+        int[] row = rows[depth];
+        int m = query.length();
+
+        /* names that end here come first */
+        int i = lo;
+        while (i < hi && cleanNames[i].length() == depth) {
+            i++;
+        }
+        if (prefix && row[m] < bound) {
+            matches.add(new int[]{lo, hi, row[m]});
+            bound = row[m];
+        } else if (!prefix && row[m] <= maxEdits && lo < i) {
+            matches.add(new int[]{lo, i, row[m]});
+        }
+
+        int min = row[0];
+        for (int j = 1; j <= m; j++) {
+            min = Math.min(min, row[j]);
+        }
+        if (min >= bound) {
+            return;
+        }
+
+        int[] next = rows[depth + 1];
+        while (i < hi) {
+            char c = cleanNames[i].charAt(depth);
+            int end = endOfGroup(i, hi, depth, c);
+            if (depth < EXACT_PREFIX_LENGTH && (depth >= m || c != query.charAt(depth))) {
+                i = end;
+                continue;
+            }
+            next[0] = row[0] + 1;
+            for (int j = 1; j <= m; j++) {
+                int substitute = row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+                next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+            }
+            walk(query, maxEdits, prefix, i, end, depth + 1, rows, bound, matches);
+            i = end;
+        }
+    }
+
+    /* end of the names in [lo, hi) whose letter at depth is c; they start at lo */
+    private int endOfGroup(int lo, int hi, int depth, char c) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cleanNames[mid].charAt(depth) <= c) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the number of names whose cleaned form starts with the cleaned prefix.
+     */
+    public int count(String prefix) {
+        String clean = GraphDB.cleanString(prefix);
+        return lowerBound(clean + Character.MAX_VALUE) - lowerBound(clean);
+    }
+
+    public int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Read-only compressed-sparse-row copy of the road graph of a GraphDB.
+ * Vertices are numbered 0 .. numVertices() - 1 in increasing order of their node id,
+ * and the edges leaving vertex v are edgeBegin(v) .. edgeEnd(v) - 1. Everything lives
+ * in primitive arrays, so searches run without boxing or hash lookups. Edge weights in
+ * both metrics are computed once here, so searches do no trigonometry.
+ */
+public class CompactGraph {
+    static final double SECONDS_PER_HOUR = 3600;
+
+    /* the chord is shorter than the arc by a relative (d / R)^2 / 24, which vanishes
+       under rounding for short edges, so shrink it a little to stay below the lengths */
+    private static final double CHORD_SLACK = 1 - 1e-9;
+
+    /* sorted, so a node id maps to its index by binary search */
+    private final long[] ids;
+    private final double[] lons, lats;
+
+    /* edges of vertex v lie in [offsets[v], offsets[v + 1]) */
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] lengths;
+    /* seconds to drive each edge at its speed limit */
+    private final double[] times;
+    /* the highest speed limit in mph, which bounds the time left to go from below */
+    private final double maxSpeed;
+
+    /* unit vectors of the vertices on the sphere, for trigonometry free lower bounds */
+    private final double[] xs, ys, zs;
+
+    /**
+     * Build the compact form of a graph that has already been cleaned.
+     *
+     * @param g The graph to copy.
+     */
+    public CompactGraph(GraphDB g) {
+        int n = 0;
+        for (long ignored : g.vertices()) {
+            n++;
+        }
+        ids = new long[n];
+        int i = 0;
+        for (long id : g.vertices()) {
+            ids[i++] = id;
+        }
+        Arrays.sort(ids);
+
+        lons = new double[n];
+        lats = new double[n];
+        offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            GraphDB.Node node = g.getNode(ids[v]);
+            lons[v] = node.lon;
+            lats[v] = node.lat;
+            offsets[v + 1] = offsets[v] + node.adjacent.size();
+        }
+
+        targets = new int[offsets[n]];
+        lengths = new double[offsets[n]];
+        times = new double[offsets[n]];
+        double fastest = 0;
+        for (int v = 0; v < n; v++) {
+            int e = offsets[v];
+            for (Map.Entry<Long, Double> w : g.getNode(ids[v]).adjacent.entrySet()) {
+                targets[e] = indexOf(w.getKey());
+                lengths[e] = GraphDB.distance(lons[v], lats[v], lons[targets[e]], lats[targets[e]]);
+                times[e] = lengths[e] / w.getValue() * SECONDS_PER_HOUR;
+                fastest = Math.max(fastest, w.getValue());
+                e++;
+            }
+        }
+        maxSpeed = fastest > 0 ? fastest : GraphBuildingHandler.FALLBACK_SPEED_MPH;
+
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        computeUnitVectors();
+    }
+
+    private CompactGraph(long[] ids, double[] lons, double[] lats, int[] offsets,
+                         int[] targets, double[] lengths, double[] times, double maxSpeed) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.lengths = lengths;
+        this.times = times;
+        this.maxSpeed = maxSpeed;
+        xs = new double[ids.length];
+        ys = new double[ids.length];
+        zs = new double[ids.length];
+        computeUnitVectors();
+    }
+
+    private void computeUnitVectors() {
+        for (int v = 0; v < ids.length; v++) {
+            double phi = Math.toRadians(lats[v]), lambda = Math.toRadians(lons[v]);
+            xs[v] = Math.cos(phi) * Math.cos(lambda);
+            ys[v] = Math.cos(phi) * Math.sin(lambda);
+            zs[v] = Math.sin(phi);
+        }
+    }
+
+    /**
+     * Write the arrays of this graph in the GraphSnapshot format.
+     */
+    void write(DataOutputStream out) throws IOException {
+        GraphSnapshot.writeLongs(out, ids);
+        GraphSnapshot.writeDoubles(out, lons);
+        GraphSnapshot.writeDoubles(out, lats);
+        GraphSnapshot.writeInts(out, offsets);
+        GraphSnapshot.writeInts(out, targets);
+        GraphSnapshot.writeDoubles(out, lengths);
+        GraphSnapshot.writeDoubles(out, times);
+        out.writeDouble(maxSpeed);
+    }
+
+    /**
+     * Read a graph written by write.
+     */
+    static CompactGraph read(ByteBuffer in) {
+        return new CompactGraph(GraphSnapshot.readLongs(in), GraphSnapshot.readDoubles(in),
+                GraphSnapshot.readDoubles(in), GraphSnapshot.readInts(in),
+                GraphSnapshot.readInts(in), GraphSnapshot.readDoubles(in),
+                GraphSnapshot.readDoubles(in), in.getDouble());
+    }
+
+    /**
+     * Returns the number of vertices.
+     */
+    public int numVertices() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the number of directed edges; each road segment counts twice.
+     */
+    public int numEdges() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the index of a node id, or -1 if it is not a vertex of the graph.
+     */
+    public int indexOf(long id) {
+        int v = Arrays.binarySearch(ids, id);
+        return v < 0 ? -1 : v;
+    }
+
+    /**
+     * Returns the node id of vertex v.
+     */
+    public long id(int v) {
+        return ids[v];
+    }
+
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    /**
+     * Returns the first edge of vertex v.
+     */
+    public int edgeBegin(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * Returns one past the last edge of vertex v.
+     */
+    public int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    /**
+     * Returns the vertex edge e leads to.
+     */
+    public int target(int e) {
+        return targets[e];
+    }
+
+    /**
+     * Returns the great-circle length of edge e in miles.
+     */
+    public double length(int e) {
+        return lengths[e];
+    }
+
+    /**
+     * Returns the time it takes to drive edge e at its speed limit, in seconds.
+     */
+    public double time(int e) {
+        return times[e];
+    }
+
+    /**
+     * Returns the weights of all edges in the given metric, indexed by edge. Searches read
+     * them straight from the array; it must not be modified.
+     */
+    double[] weights(Metric metric) {
+        return metric == Metric.TIME ? times : lengths;
+    }
+
+    /**
+     * Returns the highest speed limit of any edge, in mph.
+     */
+    public double maxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Returns the great-circle distance between vertices v and w in miles.
+     */
+    public double distance(int v, int w) {
+        return GraphDB.distance(lons[v], lats[v], lons[w], lats[w]);
+    }
+
+    /**
+     * Returns a lower bound on the weight of any path between vertices v and w: the
+     * straight chord through the earth between them, which is never longer than the
+     * great-circle distance, driven at maxSpeed() for Metric.TIME. It is consistent,
+     * so A* can use it, and costs a square root instead of a handful of trigonometric
+     * functions.
+     */
+    public double minWeight(int v, int w, Metric metric) {
+        double dx = xs[v] - xs[w], dy = ys[v] - ys[w], dz = zs[v] - zs[w];
+        double chord = GraphDB.EARTH_RADIUS * CHORD_SLACK * Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return metric == Metric.TIME ? chord / maxSpeed * SECONDS_PER_HOUR : chord;
+    }
+}
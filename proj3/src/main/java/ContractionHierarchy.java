@@ -0,0 +1,548 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * A contraction hierarchy over the road graph of a GraphDB.
+ * Preprocessing contracts the vertices one by one in order of importance, adding a
+ * shortcut edge between two remaining neighbors whenever the only shortest path between
+ * them ran through the contracted vertex. A query is then a bidirectional Dijkstra that
+ * only goes "upward" in that order from both ends, which settles a few hundred vertices
+ * instead of a large part of the map. A hierarchy is built for one Metric, and its
+ * queries return shortest paths and weights in that metric.
+ */
+public class ContractionHierarchy {
+    /* a witness search gives up after settling this many vertices; estimating the
+       priority of a vertex only needs a rough shortcut count, so it gives up sooner */
+    private static final int WITNESS_SETTLE_LIMIT = 200;
+    private static final int ESTIMATE_SETTLE_LIMIT = 40;
+
+    /* middle vertex of an original (non-shortcut) edge */
+    private static final int NO_MIDDLE = -1;
+
+    /* vertex indices are those of the compact graph */
+    private final CompactGraph graph;
+
+    /* position of each vertex in the contraction order */
+    private final int[] rank;
+
+    /* upward edges of vertex v lie in [upOffsets[v], upOffsets[v + 1]) */
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upMiddles;
+
+    /* per-thread query state, so concurrent queries never allocate or share arrays */
+    private final ThreadLocal<SearchSide[]> searchSides;
+
+    private static class Edge {
+        int to;
+        double weight;
+        int middle;
+
+        Edge(int to, double weight, int middle) {
+            this.to = to;
+            this.weight = weight;
+            this.middle = middle;
+        }
+    }
+
+    private static class Shortcut {
+        int from, to;
+        double weight;
+
+        Shortcut(int from, int to, double weight) {
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * One direction of a bidirectional query. Entries are only valid when their stamp
+     * equals the current epoch, so a new query does not have to clear the arrays, and
+     * the queue is an indexed heap, so a query allocates no queue entries.
+     */
+    private static class SearchSide {
+        double[] dist;
+        int[] parent;
+        int[] stamp;
+        int epoch;
+        /* the vertices settled since reset, in order */
+        int[] settledOrder;
+        int settled;
+        IndexedMinHeap heap;
+
+        SearchSide(int n) {
+            heap = new IndexedMinHeap(n);
+            dist = new double[n];
+            parent = new int[n];
+            stamp = new int[n];
+            settledOrder = new int[n];
+        }
+
+        void settle(int v) {
+            settledOrder[settled] = v;
+            settled += 1;
+        }
+
+        void reset(int source) {
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                epoch = 0;
+            }
+            epoch += 1;
+            settled = 0;
+            heap.clear();
+            visit(source, 0.0, -1);
+        }
+
+        boolean reached(int v) {
+            return stamp[v] == epoch;
+        }
+
+        void visit(int v, double d, int p) {
+            stamp[v] = epoch;
+            dist[v] = d;
+            parent[v] = p;
+            heap.push(v, d);
+        }
+
+        double minKey() {
+            return heap.minKey();
+        }
+    }
+
+    /**
+     * Preprocess the given graph for shortest distances. Takes a few seconds on the
+     * Berkeley map, so this is meant to be done once at startup.
+     *
+     * @param g The graph to build the hierarchy for.
+     */
+    public ContractionHierarchy(GraphDB g) {
+        this(g, Metric.DISTANCE);
+    }
+
+    /**
+     * Preprocess the given graph for shortest paths in the given metric.
+     *
+     * @param g      The graph to build the hierarchy for.
+     * @param metric The edge weights to use.
+     */
+    public ContractionHierarchy(GraphDB g, Metric metric) {
+        graph = g.compactGraph();
+        int n = graph.numVertices();
+        double[] weights = graph.weights(metric);
+
+        List<Map<Integer, Edge>> edges = new ArrayList<>(n);
+        for (int v = 0; v < n; v++) {
+            Map<Integer, Edge> vEdges = new HashMap<>();
+            for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+                int to = graph.target(e);
+                vEdges.put(to, new Edge(to, weights[e], NO_MIDDLE));
+            }
+            edges.add(vEdges);
+        }
+
+        rank = new int[n];
+        List<List<Edge>> upEdges = contract(edges);
+
+        /* flatten the upward edges */
+        upOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] = upOffsets[v] + upEdges.get(v).size();
+        }
+        upTargets = new int[upOffsets[n]];
+        upWeights = new double[upOffsets[n]];
+        upMiddles = new int[upOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            int i = upOffsets[v];
+            for (Edge e : upEdges.get(v)) {
+                upTargets[i] = e.to;
+                upWeights[i] = e.weight;
+                upMiddles[i] = e.middle;
+                i++;
+            }
+        }
+
+        searchSides = ThreadLocal.withInitial(() ->
+                new SearchSide[]{new SearchSide(n), new SearchSide(n)});
+    }
+
+    private ContractionHierarchy(CompactGraph graph, int[] rank, int[] upOffsets,
+                                 int[] upTargets, double[] upWeights, int[] upMiddles) {
+        this.graph = graph;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        int n = graph.numVertices();
+        searchSides = ThreadLocal.withInitial(() ->
+                new SearchSide[]{new SearchSide(n), new SearchSide(n)});
+    }
+
+    /**
+     * Write the hierarchy in the GraphSnapshot format.
+     */
+    void write(DataOutputStream out) throws IOException {
+        GraphSnapshot.writeInts(out, rank);
+        GraphSnapshot.writeInts(out, upOffsets);
+        GraphSnapshot.writeInts(out, upTargets);
+        GraphSnapshot.writeDoubles(out, upWeights);
+        GraphSnapshot.writeInts(out, upMiddles);
+    }
+
+    /**
+     * Read a hierarchy written by write, for the same graph.
+     */
+    static ContractionHierarchy read(CompactGraph graph, ByteBuffer in) {
+        return new ContractionHierarchy(graph, GraphSnapshot.readInts(in),
+                GraphSnapshot.readInts(in), GraphSnapshot.readInts(in),
+                GraphSnapshot.readDoubles(in), GraphSnapshot.readInts(in));
+    }
+
+    /**
+     * Contract all vertices, cheapest first. The edges a vertex still has when it gets
+     * contracted all lead to vertices contracted later, i.e. they are its upward edges.
+     */
+    private List<List<Edge>> contract(List<Map<Integer, Edge>> edges) {
+        int n = edges.size();
+        int[] deletedNeighbors = new int[n];
+        WitnessSearch witness = new WitnessSearch(n);
+        List<List<Edge>> upEdges = new ArrayList<>(Collections.nCopies(n, null));
+
+        PriorityQueue<QueueEntry> order = new PriorityQueue<>();
+        for (int v = 0; v < n; v++) {
+            order.add(new QueueEntry(v, priority(v, edges, deletedNeighbors, witness)));
+        }
+
+        int nextRank = 0;
+        while (!order.isEmpty()) {
+            int v = order.poll().node;
+
+            /* lazy update: priorities of remaining vertices go stale as neighbors vanish */
+            double p = priority(v, edges, deletedNeighbors, witness);
+            if (!order.isEmpty() && p > order.peek().priority) {
+                order.add(new QueueEntry(v, p));
+                continue;
+            }
+
+            List<Shortcut> shortcuts = findShortcuts(v, edges, witness, WITNESS_SETTLE_LIMIT);
+            rank[v] = nextRank++;
+            upEdges.set(v, new ArrayList<>(edges.get(v).values()));
+            for (Edge e : edges.get(v).values()) {
+                edges.get(e.to).remove(v);
+                deletedNeighbors[e.to] += 1;
+            }
+            edges.set(v, Collections.emptyMap());
+            for (Shortcut s : shortcuts) {
+                addEdge(edges, s.from, s.to, s.weight, v);
+                addEdge(edges, s.to, s.from, s.weight, v);
+            }
+        }
+        return upEdges;
+    }
+
+    private static void addEdge(List<Map<Integer, Edge>> edges, int from, int to,
+                                double weight, int middle) {
+        Edge old = edges.get(from).get(to);
+        if (old == null || old.weight > weight) {
+            edges.get(from).put(to, new Edge(to, weight, middle));
+        }
+    }
+
+    /* edge difference plus the number of already contracted neighbors */
+    private static double priority(int v, List<Map<Integer, Edge>> edges,
+                                   int[] deletedNeighbors, WitnessSearch witness) {
+        int shortcuts = findShortcuts(v, edges, witness, ESTIMATE_SETTLE_LIMIT).size();
+        return shortcuts - edges.get(v).size() + deletedNeighbors[v];
+    }
+
+    /* shortcuts needed to preserve distances between the neighbors of v once v is gone */
+    private static List<Shortcut> findShortcuts(int v, List<Map<Integer, Edge>> edges,
+                                                WitnessSearch witness, int settleLimit) {
+        List<Shortcut> result = new ArrayList<>();
+        Map<Integer, Edge> vEdges = edges.get(v);
+        for (Edge in : vEdges.values()) {
+            /* pairs of zero-length edges, from coincident nodes, still need a shortcut */
+            double maxDist = 0;
+            boolean anyPair = false;
+            for (Edge out : vEdges.values()) {
+                if (out.to > in.to) {
+                    maxDist = Math.max(maxDist, in.weight + out.weight);
+                    anyPair = true;
+                }
+            }
+            if (!anyPair) {
+                continue;
+            }
+
+            witness.run(in.to, v, maxDist, settleLimit, edges);
+            for (Edge out : vEdges.values()) {
+                double viaV = in.weight + out.weight;
+                if (out.to > in.to && witness.distance(out.to) > viaV) {
+                    result.add(new Shortcut(in.to, out.to, viaV));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bounded Dijkstra among uncontracted vertices that avoids the vertex being
+     * contracted. Giving up early only ever adds shortcuts, never loses a shortest path.
+     */
+    private static class WitnessSearch {
+        double[] dist;
+        int[] stamp;
+        int epoch;
+        PriorityQueue<QueueEntry> pq = new PriorityQueue<>();
+
+        WitnessSearch(int n) {
+            dist = new double[n];
+            stamp = new int[n];
+        }
+
+        void run(int source, int avoid, double maxDist, int settleLimit,
+                 List<Map<Integer, Edge>> edges) {
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                epoch = 0;
+            }
+            epoch += 1;
+            pq.clear();
+            stamp[source] = epoch;
+            dist[source] = 0.0;
+            pq.add(new QueueEntry(source, 0.0));
+
+            int settled = 0;
+            while (!pq.isEmpty() && settled < settleLimit) {
+                QueueEntry e = pq.poll();
+                if (e.priority > dist[e.node]) {
+                    continue;
+                }
+                if (e.priority > maxDist) {
+                    break;
+                }
+                settled += 1;
+                for (Edge edge : edges.get(e.node).values()) {
+                    if (edge.to == avoid) {
+                        continue;
+                    }
+                    double d = e.priority + edge.weight;
+                    if (stamp[edge.to] != epoch || d < dist[edge.to]) {
+                        stamp[edge.to] = epoch;
+                        dist[edge.to] = d;
+                        pq.add(new QueueEntry(edge.to, d));
+                    }
+                }
+            }
+        }
+
+        double distance(int v) {
+            return stamp[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Return the shortest path between two vertices of the graph.
+     *
+     * @param startId The id of the start vertex.
+     * @param destId  The id of the destination vertex.
+     * @return The node ids along the shortest path, or an empty list if the vertices
+     * are not connected.
+     */
+    public List<Long> shortestPath(long startId, long destId) {
+        List<Long> result = new LinkedList<>();
+        int s = graph.indexOf(startId), t = graph.indexOf(destId);
+        if (s == -1 || t == -1) {
+            return result;
+        }
+
+        SearchSide[] sides = searchSides.get();
+        SearchSide forward = sides[0], backward = sides[1];
+        forward.reset(s);
+        backward.reset(t);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+
+        /* neither side can stop before its smallest key reaches the best meeting distance */
+        while (Math.min(forward.minKey(), backward.minKey()) < best) {
+            SearchSide side = forward.minKey() <= backward.minKey() ? forward : backward;
+            SearchSide other = side == forward ? backward : forward;
+
+            int v = side.heap.poll();
+            side.settle(v);
+            if (other.reached(v) && side.dist[v] + other.dist[v] < best) {
+                best = side.dist[v] + other.dist[v];
+                meet = v;
+            }
+
+            for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+                int w = upTargets[i];
+                double d = side.dist[v] + upWeights[i];
+                if (!side.reached(w) || d < side.dist[w]) {
+                    side.visit(w, d, v);
+                }
+            }
+        }
+
+        if (meet == -1) {
+            return result;
+        }
+
+        /* the search path is s -> meet -> t in upward (possibly shortcut) edges */
+        List<Integer> searchPath = new LinkedList<>();
+        for (int v = meet; v != -1; v = forward.parent[v]) {
+            searchPath.add(0, v);
+        }
+        for (int v = backward.parent[meet]; v != -1; v = backward.parent[v]) {
+            searchPath.add(v);
+        }
+
+        result.add(graph.id(s));
+        int prev = s;
+        for (int v : searchPath) {
+            if (v != prev) {
+                unpack(prev, v, result);
+            }
+            prev = v;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the weight of the shortest path between every source and every target
+     * vertex, infinity where there is none. Uses one upward search per vertex: the
+     * searches from the targets leave their distances in a bucket at every vertex they
+     * settle, then the search from a source only scans the buckets of the vertices it
+     * settles. Searches run in parallel.
+     *
+     * @param sources Vertex indices of the compact graph.
+     * @param targets Vertex indices of the compact graph.
+     * @return table[i][j], the distance from sources[i] to targets[j].
+     */
+    public double[][] distanceTable(int[] sources, int[] targets) {
+        int n = graph.numVertices();
+
+        /* the vertices each target search settled, and their distances */
+        int[][] targetVertices = new int[targets.length][];
+        double[][] targetDists = new double[targets.length][];
+        IntStream.range(0, targets.length).parallel().forEach(j -> {
+            SearchSide side = searchSides.get()[1];
+            searchUpward(side, targets[j]);
+            targetVertices[j] = Arrays.copyOf(side.settledOrder, side.settled);
+            targetDists[j] = new double[side.settled];
+            for (int i = 0; i < side.settled; i++) {
+                targetDists[j][i] = side.dist[side.settledOrder[i]];
+            }
+        });
+
+        /* flatten into buckets; the bucket of v is [bucketOffsets[v], bucketOffsets[v + 1]) */
+        int[] bucketOffsets = new int[n + 1];
+        for (int[] vertices : targetVertices) {
+            for (int v : vertices) {
+                bucketOffsets[v + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            bucketOffsets[v + 1] += bucketOffsets[v];
+        }
+        int[] bucketTargets = new int[bucketOffsets[n]];
+        double[] bucketDists = new double[bucketOffsets[n]];
+        int[] fill = Arrays.copyOf(bucketOffsets, n);
+        for (int j = 0; j < targets.length; j++) {
+            for (int i = 0; i < targetVertices[j].length; i++) {
+                int v = targetVertices[j][i];
+                bucketTargets[fill[v]] = j;
+                bucketDists[fill[v]] = targetDists[j][i];
+                fill[v] += 1;
+            }
+        }
+
+        double[][] table = new double[sources.length][targets.length];
+        IntStream.range(0, sources.length).parallel().forEach(i -> {
+            double[] row = table[i];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            SearchSide side = searchSides.get()[0];
+            searchUpward(side, sources[i]);
+            for (int k = 0; k < side.settled; k++) {
+                int v = side.settledOrder[k];
+                double d = side.dist[v];
+                for (int b = bucketOffsets[v]; b < bucketOffsets[v + 1]; b++) {
+                    int j = bucketTargets[b];
+                    row[j] = Math.min(row[j], d + bucketDists[b]);
+                }
+            }
+        });
+        return table;
+    }
+
+    /* settles every vertex reachable from source over upward edges */
+    private void searchUpward(SearchSide side, int source) {
+        side.reset(source);
+        while (!side.heap.isEmpty()) {
+            int v = side.heap.poll();
+            side.settle(v);
+            for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+                int w = upTargets[i];
+                double d = side.dist[v] + upWeights[i];
+                if (!side.reached(w) || d < side.dist[w]) {
+                    side.visit(w, d, v);
+                }
+            }
+        }
+    }
+
+    /* append the original vertices of edge (a, b), excluding a, to path */
+    private void unpack(int a, int b, List<Long> path) {
+        int lower = rank[a] < rank[b] ? a : b, upper = lower == a ? b : a;
+        int middle = NO_MIDDLE;
+        for (int i = upOffsets[lower]; i < upOffsets[lower + 1]; i++) {
+            if (upTargets[i] == upper) {
+                middle = upMiddles[i];
+                break;
+            }
+        }
+
+        if (middle == NO_MIDDLE) {
+            path.add(graph.id(b));
+        } else {
+            unpack(a, middle, path);
+            unpack(middle, b, path);
+        }
+    }
+
+    /**
+     * Returns the number of vertices the last shortestPath call of this thread settled,
+     * counting both directions.
+     */
+    public int lastSettled() {
+        SearchSide[] sides = searchSides.get();
+        return sides[0].settled + sides[1].settled;
+    }
+
+    /**
+     * Returns the number of shortcut edges added during preprocessing.
+     */
+    public int numShortcuts() {
+        int count = 0;
+        for (int middle : upMiddles) {
+            if (middle != NO_MIDDLE) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+}
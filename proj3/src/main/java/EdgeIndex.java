@@ -0,0 +1,126 @@
+import java.util.function.IntConsumer;
+
+/**
+ * A uniform grid over the edges of a CompactGraph, for finding the roads that cross a
+ * box. Each road is kept once, as the edge from its lower to its higher vertex, in every
+ * cell its bounding box overlaps; edges past the bounds of the grid go in its border
+ * cells. The cells are stored like the adjacency lists of CompactGraph: an array of
+ * edges, cell by cell, and the offset of each cell into it.
+ */
+public class EdgeIndex {
+    private final CompactGraph graph;
+    private final double west, north, cellWidth, cellHeight;
+    private final int gridSize;
+
+    /* edges of cell (x, y) are at [offsets[c], offsets[c + 1]), with c = y * gridSize + x */
+    private final int[] offsets;
+    private final int[] edges;
+    /* the vertex each edge of the graph starts at */
+    private final int[] sources;
+
+    /**
+     * Build the index over all edges of the graph.
+     *
+     * @param graph    The graph whose edges to index.
+     * @param west     Longitude of the left side of the grid.
+     * @param north    Latitude of the top side of the grid.
+     * @param east     Longitude of the right side of the grid.
+     * @param south    Latitude of the bottom side of the grid.
+     * @param gridSize The number of cells along each side.
+     */
+    public EdgeIndex(CompactGraph graph, double west, double north, double east, double south,
+                     int gridSize) {
+        this.graph = graph;
+        this.west = west;
+        this.north = north;
+        this.gridSize = gridSize;
+        cellWidth = (east - west) / gridSize;
+        cellHeight = (north - south) / gridSize;
+
+        sources = new int[graph.numEdges()];
+        for (int v = 0; v < graph.numVertices(); v++) {
+            for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+                sources[e] = v;
+            }
+        }
+
+        /* count the edges of each cell, then fill them in */
+        offsets = new int[gridSize * gridSize + 1];
+        for (int v = 0; v < graph.numVertices(); v++) {
+            for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+                if (v < graph.target(e)) {
+                    forEachCell(v, graph.target(e), c -> offsets[c + 1] += 1);
+                }
+            }
+        }
+        for (int c = 0; c < gridSize * gridSize; c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        edges = new int[offsets[gridSize * gridSize]];
+        int[] next = new int[gridSize * gridSize];
+        System.arraycopy(offsets, 0, next, 0, next.length);
+        for (int v = 0; v < graph.numVertices(); v++) {
+            for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+                if (v < graph.target(e)) {
+                    int edge = e;
+                    forEachCell(v, graph.target(e), c -> edges[next[c]++] = edge);
+                }
+            }
+        }
+    }
+
+    private void forEachCell(int v, int w, IntConsumer action) {
+        int x0 = column(Math.min(graph.lon(v), graph.lon(w))),
+                x1 = column(Math.max(graph.lon(v), graph.lon(w))),
+                y0 = row(Math.max(graph.lat(v), graph.lat(w))),
+                y1 = row(Math.min(graph.lat(v), graph.lat(w)));
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                action.accept(y * gridSize + x);
+            }
+        }
+    }
+
+    private int column(double lon) {
+        return clamp((int) Math.floor((lon - west) / cellWidth));
+    }
+
+    private int row(double lat) {
+        return clamp((int) Math.floor((north - lat) / cellHeight));
+    }
+
+    private int clamp(int cell) {
+        return Math.max(0, Math.min(gridSize - 1, cell));
+    }
+
+    /**
+     * Returns the vertex edge e starts at.
+     */
+    public int source(int e) {
+        return sources[e];
+    }
+
+    /**
+     * Passes every edge whose bounding box may overlap the given box to action, once
+     * each. The edges are those of the graph, from the lower to the higher vertex.
+     */
+    public void forEachEdge(double west, double north, double east, double south,
+                            IntConsumer action) {
+        int qx0 = column(west), qx1 = column(east), qy0 = row(north), qy1 = row(south);
+        for (int y = qy0; y <= qy1; y++) {
+            for (int x = qx0; x <= qx1; x++) {
+                int c = y * gridSize + x;
+                for (int i = offsets[c]; i < offsets[c + 1]; i++) {
+                    int e = edges[i];
+                    /* an edge in several cells of the query is reported by its first one */
+                    int v = sources[e], w = graph.target(e);
+                    int ex0 = column(Math.min(graph.lon(v), graph.lon(w))),
+                            ey0 = row(Math.max(graph.lat(v), graph.lat(w)));
+                    if (x == Math.max(ex0, qx0) && y == Math.max(ey0, qy0)) {
+                        action.accept(e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -3,9 +3,13 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Parses OSM XML files using an XML SAX parser. Used to construct the graph of roads for
@@ -33,16 +37,71 @@ public class GraphBuildingHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+    static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
+    /**
+     * Speed limit in mph of each allowed highway type, for ways without a usable maxspeed
+     * tag. These are the usual limits on such roads in California.
+     */
+    static final Map<String, Double> DEFAULT_SPEED_MPH = new HashMap<>();
+    static {
+        DEFAULT_SPEED_MPH.put("motorway", 65.0);
+        DEFAULT_SPEED_MPH.put("motorway_link", 45.0);
+        DEFAULT_SPEED_MPH.put("trunk", 55.0);
+        DEFAULT_SPEED_MPH.put("trunk_link", 40.0);
+        DEFAULT_SPEED_MPH.put("primary", 35.0);
+        DEFAULT_SPEED_MPH.put("primary_link", 30.0);
+        DEFAULT_SPEED_MPH.put("secondary", 30.0);
+        DEFAULT_SPEED_MPH.put("secondary_link", 25.0);
+        DEFAULT_SPEED_MPH.put("tertiary", 25.0);
+        DEFAULT_SPEED_MPH.put("tertiary_link", 25.0);
+        DEFAULT_SPEED_MPH.put("unclassified", 25.0);
+        DEFAULT_SPEED_MPH.put("residential", 25.0);
+        DEFAULT_SPEED_MPH.put("living_street", 10.0);
+    }
+    /**
+     * Speed limit in mph of roads of unknown type.
+     */
+    static final double FALLBACK_SPEED_MPH = 25.0;
+    static final double MPH_PER_KMH = 0.621371;
+    static final double MPH_PER_KNOT = 1.150779;
+    /* a number first, as in "25 mph", "50" (km/h) or "40;50" */
+    private static final Pattern MAXSPEED = Pattern.compile("\\s*(\\d+(?:\\.\\d+)?).*");
+
     private String activeState = "";
     private final GraphDB g;
 
     private GraphDB.Node currentNode;
     private GraphDB.Way currentWay;
 
+    /**
+     * Returns the speed limit of a way in mph: its maxspeed tag if that starts with a
+     * number (km/h unless it says otherwise, as OSM has it), else the default of its
+     * highway type. A tag listing several limits counts by its first.
+     *
+     * @param highway  The highway tag of the way, or null.
+     * @param maxspeed The maxspeed tag of the way, or null.
+     */
+    static double speedOf(String highway, String maxspeed) {
+        if (maxspeed != null) {
+            Matcher m = MAXSPEED.matcher(maxspeed);
+            if (m.matches()) {
+                double speed = Double.parseDouble(m.group(1));
+                if (maxspeed.contains("knots")) {
+                    speed *= MPH_PER_KNOT;
+                } else if (!maxspeed.contains("mph")) {
+                    speed *= MPH_PER_KMH;
+                }
+                if (speed > 0) {
+                    return speed;
+                }
+            }
+        }
+        return DEFAULT_SPEED_MPH.getOrDefault(highway, FALLBACK_SPEED_MPH);
+    }
+
     /**
      * Create a new GraphBuildingHandler.
      *
@@ -123,6 +182,7 @@ public class GraphBuildingHandler extends DefaultHandler {
                 /* Figure out whether this way and its connections are valid. */
                 /* Hint: Setting a "flag" is good enough! */
                 currentWay.valid = ALLOWED_HIGHWAY_TYPES.contains(v);
+                currentWay.info.put(k, v);
 
             } else if (k.equals("name")) {
                 //System.out.println("Way Name: " + v);
@@ -139,7 +199,6 @@ public class GraphBuildingHandler extends DefaultHandler {
 //            System.out.println("Node's name: " + attributes.getValue("v"));
             String nodeName = attributes.getValue("v");
             currentNode.info.put("name", nodeName);
-            g.nodeNames.addStr(nodeName);
 
             String cleanNodeName = GraphDB.cleanString(nodeName);
             g.cleanNameToId.putIfAbsent(cleanNodeName, new ArrayList<>());
@@ -1,12 +1,13 @@
 import org.xml.sax.SAXException;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.HashMap;
 import java.util.List;
@@ -24,6 +25,11 @@ import java.util.HashSet;
  * @author Alan Yao, Josh Hug
  */
 public class GraphDB {
+    /**
+     * Radius of the earth in miles, as used by distance.
+     */
+    static final double EARTH_RADIUS = 3963;
+
     /**
      * Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc.
@@ -39,15 +45,30 @@ public class GraphDB {
     Map<Long, Node> nameNodes = new HashMap<>();
     Set<Long> ids = new HashSet<>();
 
-    /* names in nameNodes*/
-    Tries nodeNames = new Tries();
+    /* ids of the nodes in nameNodes by cleaned name */
     Map<String, List<Long>> cleanNameToId = new HashMap<>();
 
+    /* built on first use, see autocompleteIndex() */
+    AutocompleteIndex autocompleteIndex;
+
+    /* primitive-array copy of the road graph, built by clean() */
+    CompactGraph compactGraph;
+
+    /* nearest-vertex index over compactGraph, built by clean() */
+    SpatialIndex spatialIndex;
+
+    /* built on first use per metric, see contractionHierarchy(Metric) */
+    Map<Metric, ContractionHierarchy> contractionHierarchies = new EnumMap<>(Metric.class);
+
+    /* built on first use per metric, see landmarks(Metric) */
+    Map<Metric, Landmarks> landmarks = new EnumMap<>(Metric.class);
+
     static class Node {
         long id;
         double lon, lat;
         Map<String, String> info = new HashMap<>();
-        Set<Long> adjacent = new HashSet<>();
+        /* speed limit in mph of the road to each neighbor, the fastest if there are several */
+        Map<Long, Double> adjacent = new HashMap<>();
         Set<String> way = new HashSet<>();
 
         Node(long id, double lon, double lat) {
@@ -56,12 +77,12 @@ public class GraphDB {
             this.lat = lat;
         }
 
-        void addAdjacent(Node nd) {
+        void addAdjacent(Node nd, double speed) {
             if (nd == null || nd.equals(this)) {
                 return;
             }
-            this.adjacent.add(nd.id);
-            nd.adjacent.add(this.id);
+            this.adjacent.merge(nd.id, speed, Math::max);
+            nd.adjacent.merge(this.id, speed, Math::max);
         }
     }
 
@@ -75,6 +96,8 @@ public class GraphDB {
 
         Iterable<Long> nodeIdIterable = way.nodesIdOfWay;
         String wayName = way.info.get("name");
+        double speed = GraphBuildingHandler.speedOf(way.info.get("highway"),
+                way.info.get("maxspeed"));
 
         /* only nodes with relationships considered valid */
         Node oldNode = null;
@@ -82,7 +105,7 @@ public class GraphDB {
             Node node = rowNodes.get(nodeId);
             ids.add(nodeId);
             validNodes.put(nodeId, node);
-            node.addAdjacent(oldNode);
+            node.addAdjacent(oldNode, speed);
 
             if (wayName != null) {
                 node.way.add(wayName);
@@ -114,9 +137,7 @@ public class GraphDB {
      */
     public GraphDB(String dbPath) {
         try {
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
+            InputStream inputStream = OsmImporter.open(dbPath);
 
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
@@ -128,6 +149,54 @@ public class GraphDB {
         clean();
     }
 
+    /**
+     * Creates an empty graph, for GraphSnapshot to fill in.
+     */
+    GraphDB() {
+    }
+
+    /**
+     * Load the graph from a snapshot file, which is much faster than parsing the XML.
+     * If the snapshot is missing, outdated or older than the XML file, parse the XML
+     * instead, build the contraction hierarchies and the landmarks of every metric and write
+     * a fresh snapshot.
+     *
+     * @param dbPath       Path to the XML file to be parsed.
+     * @param snapshotPath Path to the snapshot file.
+     * @return The graph.
+     */
+    public static GraphDB load(String dbPath, String snapshotPath) {
+        File snapshot = new File(snapshotPath);
+        if (snapshot.isFile() && snapshot.lastModified() >= new File(dbPath).lastModified()) {
+            try {
+                GraphDB g = GraphSnapshot.read(snapshotPath);
+                if (g != null) {
+                    return g;
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        GraphDB g;
+        try {
+            g = new OsmImporter().importGraph(dbPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            g = new GraphDB(dbPath);
+        }
+        for (Metric metric : Metric.values()) {
+            g.contractionHierarchy(metric);
+            g.landmarks(metric);
+        }
+        try {
+            GraphSnapshot.write(g, snapshotPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return g;
+    }
+
     /**
      * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
      *
@@ -143,7 +212,7 @@ public class GraphDB {
      * While this does not guarantee that any two nodes in the remaining graph are connected,
      * we can reasonably assume this since typically roads are connected.
      */
-    private void clean() {
+    void clean() {
         //Your code here.
         for (Long id : rowNodes.keySet()) {
             Node nd = rowNodes.get(id);
@@ -152,6 +221,27 @@ public class GraphDB {
             }
         }
         rowNodes.clear();
+
+        compactGraph = new CompactGraph(this);
+        spatialIndex = new SpatialIndex(compactGraph);
+        /* the compact graph holds the adjacency from now on */
+        for (Node nd : validNodes.values()) {
+            nd.adjacent = null;
+        }
+    }
+
+    /**
+     * Returns the compressed-sparse-row form of this graph, for searches.
+     */
+    CompactGraph compactGraph() {
+        return compactGraph;
+    }
+
+    /**
+     * Returns the nearest-vertex index over compactGraph().
+     */
+    SpatialIndex spatialIndex() {
+        return spatialIndex;
     }
 
     /**
@@ -171,7 +261,12 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        return validNodes.get(v).adjacent;
+        int index = compactGraph.indexOf(v);
+        List<Long> result = new ArrayList<>();
+        for (int e = compactGraph.edgeBegin(index); e < compactGraph.edgeEnd(index); e++) {
+            result.add(compactGraph.id(compactGraph.target(e)));
+        }
+        return result;
     }
 
     /**
@@ -196,7 +291,7 @@ public class GraphDB {
         double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
         a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return 3963 * c;
+        return EARTH_RADIUS * c;
     }
 
     /**
@@ -235,17 +330,40 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
-        double minDist = Double.MAX_VALUE;
-        long closeId = 0;
-        for (long id : ids) {
-            double longitude = lon(id), latitude = lat(id),
-                    currentDist = distance(lon, lat, longitude, latitude);
-            if (currentDist < minDist) {
-                minDist = currentDist;
-                closeId = id;
-            }
+        int v = spatialIndex.nearest(lon, lat);
+        return v == -1 ? 0 : compactGraph.id(v);
+    }
+
+    /**
+     * Returns the k vertices closest to the given longitude and latitude.
+     *
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k   The number of vertices to return.
+     * @return The ids of the closest vertices, closest first.
+     */
+    List<Long> kClosest(double lon, double lat, int k) {
+        return toIds(spatialIndex.kNearest(lon, lat, k));
+    }
+
+    /**
+     * Returns all vertices within a distance of the given longitude and latitude.
+     *
+     * @param lon    The target longitude.
+     * @param lat    The target latitude.
+     * @param radius The distance in miles.
+     * @return The ids of the vertices in range, closest first.
+     */
+    List<Long> withinRadius(double lon, double lat, double radius) {
+        return toIds(spatialIndex.withinRadius(lon, lat, radius));
+    }
+
+    private List<Long> toIds(int[] vertices) {
+        List<Long> result = new ArrayList<>(vertices.length);
+        for (int v : vertices) {
+            result.add(compactGraph.id(v));
         }
-        return closeId;
+        return result;
     }
 
     /**
@@ -268,14 +386,107 @@ public class GraphDB {
         return validNodes.get(v).lat;
     }
 
-    public List<String> getLocationsByPrefix(String prefix) {
-        if (prefix == null || prefix.isEmpty()) {
-            return new ArrayList<>();
+    /**
+     * Returns the contraction hierarchy of this graph, building it on first call.
+     *
+     * @return The contraction hierarchy for fast point-to-point queries.
+     */
+    ContractionHierarchy contractionHierarchy() {
+        return contractionHierarchy(Metric.DISTANCE);
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph for shortest paths in the given
+     * metric, building it on first call.
+     */
+    synchronized ContractionHierarchy contractionHierarchy(Metric metric) {
+        return contractionHierarchies.computeIfAbsent(metric,
+                m -> new ContractionHierarchy(this, m));
+    }
+
+    /**
+     * Returns the road distance between every pair of points, snapping each point to its
+     * closest vertex first.
+     *
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points, in the same order.
+     * @return matrix[i][j], the length in miles of the shortest route from point i to
+     * point j, infinity if there is none.
+     */
+    public double[][] distanceMatrix(double[] lons, double[] lats) {
+        return distanceMatrix(lons, lats, Metric.DISTANCE);
+    }
+
+    /**
+     * Same as distanceMatrix above, but for routes that minimize the given metric: with
+     * Metric.TIME the matrix holds driving times in seconds.
+     */
+    public double[][] distanceMatrix(double[] lons, double[] lats, Metric metric) {
+        int[] vertices = new int[lons.length];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = compactGraph.indexOf(closest(lons[i], lats[i]));
         }
+        return contractionHierarchy(metric).distanceTable(vertices, vertices);
+    }
 
-        String clean = GraphDB.cleanString(prefix);
+    /**
+     * Returns the ALT landmarks of this graph, picking them on first call.
+     *
+     * @return The landmark distance tables for lower bounds on distances.
+     */
+    Landmarks landmarks() {
+        return landmarks(Metric.DISTANCE);
+    }
 
-        return nodeNames.getStrWithPrefix(clean);
+    /**
+     * Returns the ALT landmarks of this graph for the given metric, picking them on first
+     * call.
+     */
+    synchronized Landmarks landmarks(Metric metric) {
+        return landmarks.computeIfAbsent(metric,
+                m -> new Landmarks(compactGraph, m, Landmarks.DEFAULT_NUM_LANDMARKS));
+    }
+
+    /**
+     * Returns the ranked prefix search over the location names, building it on first call.
+     */
+    synchronized AutocompleteIndex autocompleteIndex() {
+        if (autocompleteIndex == null) {
+            Map<String, Integer> frequency = new HashMap<>();
+            for (Node nd : nameNodes.values()) {
+                frequency.merge(nd.info.get("name"), 1, Integer::sum);
+            }
+            autocompleteIndex = new AutocompleteIndex(frequency);
+        }
+        return autocompleteIndex;
+    }
+
+    /**
+     * Returns the names of all locations whose cleaned name starts with the cleaned
+     * prefix, best ranked first.
+     */
+    public List<String> getLocationsByPrefix(String prefix) {
+        return getLocationsByPrefix(prefix, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the names of the k best ranked locations whose cleaned name starts with
+     * the cleaned prefix, best first.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int k) {
+        return autocompleteIndex().topK(prefix, k);
+    }
+
+    /**
+     * Same as getLocationsByPrefix, but tolerates typos: also returns names that start
+     * with a string a few edits away from the prefix, after the exact matches.
+     */
+    public List<String> searchLocations(String prefix, int k) {
+        if (prefix == null) {
+            return new ArrayList<>();
+        }
+        int maxEdits = AutocompleteIndex.maxEdits(GraphDB.cleanString(prefix).length());
+        return autocompleteIndex().fuzzyTopK(prefix, maxEdits, k);
     }
 
     public List<Map<String, Object>> getLocations(String locationName) {
@@ -286,7 +497,13 @@ public class GraphDB {
 
         String cleanName = GraphDB.cleanString(locationName);
         if (!cleanNameToId.containsKey(cleanName)) {
-            return result;
+            /* no exact match, so take the closest name within a few typos */
+            List<String> matches = autocompleteIndex().fuzzyMatches(locationName,
+                    AutocompleteIndex.maxEdits(cleanName.length()));
+            if (matches.isEmpty()) {
+                return result;
+            }
+            cleanName = GraphDB.cleanString(matches.get(0));
         }
 
         for (Long id : cleanNameToId.get(cleanName)) {
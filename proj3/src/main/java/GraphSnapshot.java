@@ -0,0 +1,235 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of a cleaned GraphDB, so the server can start without parsing the
+ * OSM XML. The file holds, in order: a header, the compact graph arrays, the way names
+ * of every vertex, the named locations, the clean-name search index and the contraction
+ * hierarchies and ALT landmark tables that had been built, each tagged with its metric.
+ * All numbers are big-endian, strings are UTF-8 with an int length, and arrays have an
+ * int length followed by their elements, so a snapshot is read back with bulk copies
+ * out of a memory-mapped file.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x424d4150; // "BMAP"
+
+    /* bump whenever the layout changes; older snapshots are then rebuilt */
+    private static final int VERSION = 3;
+
+    /**
+     * Write the graph to a snapshot file, replacing it if it exists.
+     *
+     * @param g            The graph to save.
+     * @param snapshotPath Path of the snapshot file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(GraphDB g, String snapshotPath) throws IOException {
+        File tmp = new File(snapshotPath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            CompactGraph cg = g.compactGraph();
+            cg.write(out);
+
+            /* way names: a string table, then indices into it per vertex */
+            Map<String, Integer> wayIndex = new HashMap<>();
+            List<String> wayNames = new ArrayList<>();
+            for (int v = 0; v < cg.numVertices(); v++) {
+                for (String way : g.getNode(cg.id(v)).way) {
+                    if (!wayIndex.containsKey(way)) {
+                        wayIndex.put(way, wayNames.size());
+                        wayNames.add(way);
+                    }
+                }
+            }
+            out.writeInt(wayNames.size());
+            for (String way : wayNames) {
+                writeString(out, way);
+            }
+            for (int v = 0; v < cg.numVertices(); v++) {
+                GraphDB.Node nd = g.getNode(cg.id(v));
+                out.writeInt(nd.way.size());
+                for (String way : nd.way) {
+                    out.writeInt(wayIndex.get(way));
+                }
+            }
+
+            out.writeInt(g.nameNodes.size());
+            for (GraphDB.Node nd : g.nameNodes.values()) {
+                out.writeLong(nd.id);
+                out.writeDouble(nd.lon);
+                out.writeDouble(nd.lat);
+                writeString(out, nd.info.get("name"));
+            }
+
+            out.writeInt(g.cleanNameToId.size());
+            for (Map.Entry<String, List<Long>> entry : g.cleanNameToId.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (long id : entry.getValue()) {
+                    out.writeLong(id);
+                }
+            }
+
+            out.writeInt(g.contractionHierarchies.size());
+            for (Map.Entry<Metric, ContractionHierarchy> ch
+                    : g.contractionHierarchies.entrySet()) {
+                out.writeInt(ch.getKey().ordinal());
+                ch.getValue().write(out);
+            }
+
+            out.writeInt(g.landmarks.size());
+            for (Map.Entry<Metric, Landmarks> landmarks : g.landmarks.entrySet()) {
+                out.writeInt(landmarks.getKey().ordinal());
+                landmarks.getValue().write(out);
+            }
+        }
+
+        Files.move(tmp.toPath(), Paths.get(snapshotPath), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read a graph back from a snapshot file.
+     *
+     * @param snapshotPath Path of the snapshot file.
+     * @return The graph, or null if the file is not a snapshot of the current version.
+     * @throws IOException If the file cannot be read.
+     */
+    public static GraphDB read(String snapshotPath) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshotPath),
+                StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.remaining() < 2 * Integer.BYTES
+                || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            return null;
+        }
+
+        GraphDB g = new GraphDB();
+        CompactGraph cg = CompactGraph.read(in);
+        g.compactGraph = cg;
+
+        String[] wayNames = new String[in.getInt()];
+        for (int i = 0; i < wayNames.length; i++) {
+            wayNames[i] = readString(in);
+        }
+        for (int v = 0; v < cg.numVertices(); v++) {
+            GraphDB.Node nd = new GraphDB.Node(cg.id(v), cg.lon(v), cg.lat(v));
+            nd.adjacent = null;
+            int numWays = in.getInt();
+            for (int i = 0; i < numWays; i++) {
+                nd.way.add(wayNames[in.getInt()]);
+            }
+            g.validNodes.put(nd.id, nd);
+            g.ids.add(nd.id);
+        }
+
+        int numNamed = in.getInt();
+        for (int i = 0; i < numNamed; i++) {
+            long id = in.getLong();
+            double lon = in.getDouble(), lat = in.getDouble();
+            String name = readString(in);
+            GraphDB.Node nd = g.validNodes.get(id);
+            if (nd == null) {
+                nd = new GraphDB.Node(id, lon, lat);
+            }
+            nd.info.put("name", name);
+            g.nameNodes.put(id, nd);
+        }
+
+        int numCleanNames = in.getInt();
+        for (int i = 0; i < numCleanNames; i++) {
+            String cleanName = readString(in);
+            List<Long> ids = new ArrayList<>();
+            int numIds = in.getInt();
+            for (int j = 0; j < numIds; j++) {
+                ids.add(in.getLong());
+            }
+            g.cleanNameToId.put(cleanName, ids);
+        }
+
+        g.spatialIndex = new SpatialIndex(cg);
+        int numHierarchies = in.getInt();
+        for (int i = 0; i < numHierarchies; i++) {
+            Metric metric = Metric.values()[in.getInt()];
+            g.contractionHierarchies.put(metric, ContractionHierarchy.read(cg, in));
+        }
+        int numLandmarks = in.getInt();
+        for (int i = 0; i < numLandmarks; i++) {
+            Metric metric = Metric.values()[in.getInt()];
+            g.landmarks.put(metric, Landmarks.read(in));
+        }
+        return g;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeInts(DataOutputStream out, int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int x : a) {
+            out.writeInt(x);
+        }
+    }
+
+    static int[] readInts(ByteBuffer in) {
+        int[] a = new int[in.getInt()];
+        in.asIntBuffer().get(a);
+        in.position(in.position() + a.length * Integer.BYTES);
+        return a;
+    }
+
+    static void writeLongs(DataOutputStream out, long[] a) throws IOException {
+        out.writeInt(a.length);
+        for (long x : a) {
+            out.writeLong(x);
+        }
+    }
+
+    static long[] readLongs(ByteBuffer in) {
+        long[] a = new long[in.getInt()];
+        in.asLongBuffer().get(a);
+        in.position(in.position() + a.length * Long.BYTES);
+        return a;
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] a) throws IOException {
+        out.writeInt(a.length);
+        for (double x : a) {
+            out.writeDouble(x);
+        }
+    }
+
+    static double[] readDoubles(ByteBuffer in) {
+        double[] a = new double[in.getInt()];
+        in.asDoubleBuffer().get(a);
+        in.position(in.position() + a.length * Double.BYTES);
+        return a;
+    }
+}
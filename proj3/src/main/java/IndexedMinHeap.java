@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of the vertices 0 .. capacity - 1 keyed by doubles, with decrease-key.
+ * Every vertex is in the heap at most once, and its position is tracked, so a search
+ * lowers the key of a queued vertex in place instead of pushing a second entry; the heap
+ * never grows past the number of vertices and allocates nothing after construction.
+ */
+public class IndexedMinHeap {
+    private final int[] heap;
+    /* position of each vertex in heap, -1 if it is not in the heap */
+    private final int[] position;
+    private final double[] keys;
+    private int size;
+
+    /**
+     * Create an empty heap for the vertices 0 .. capacity - 1.
+     */
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int v) {
+        return position[v] != -1;
+    }
+
+    /**
+     * Add v with the given key, or lower its key if it is already in the heap with a
+     * larger one.
+     */
+    public void push(int v, double key) {
+        int i = position[v];
+        if (i == -1) {
+            i = size++;
+            heap[i] = v;
+            position[v] = i;
+        } else if (key >= keys[v]) {
+            return;
+        }
+        keys[v] = key;
+        siftUp(i);
+    }
+
+    /**
+     * Returns the vertex with the smallest key; the heap must not be empty.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Returns the smallest key, or infinity if the heap is empty.
+     */
+    public double minKey() {
+        return size == 0 ? Double.POSITIVE_INFINITY : keys[heap[0]];
+    }
+
+    /**
+     * Remove and return the vertex with the smallest key; the heap must not be empty.
+     */
+    public int poll() {
+        int v = heap[0];
+        position[v] = -1;
+        size -= 1;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return v;
+    }
+
+    /**
+     * Remove all vertices, in time proportional to how many there are.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (keys[p] <= key) {
+                break;
+            }
+            heap[i] = p;
+            position[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child += 1;
+            }
+            int c = heap[child];
+            if (keys[c] >= key) {
+                break;
+            }
+            heap[i] = c;
+            position[c] = i;
+            i = child;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Landmark distances for ALT search (A*, landmarks, triangle inequality). For a
+ * landmark L and any vertices v and t, the triangle inequality gives
+ * d(v, t) >= |d(L, t) - d(L, v)|, so the largest such difference over a few landmarks
+ * is a lower bound on the distance left to go. On roads that detour around hills it is
+ * much tighter than the straight line. Landmarks are picked greedily, each as far as
+ * possible from the ones picked before, so they end up spread around the edge of the map.
+ * The distances may be in either Metric; the bounds are then in the same metric.
+ */
+public class Landmarks {
+    /**
+     * Number of landmarks GraphDB picks.
+     */
+    static final int DEFAULT_NUM_LANDMARKS = 16;
+
+    private final int[] landmarks;
+
+    /* dist[v * landmarks.length + i] is the distance between landmark i and vertex v,
+       infinity if they are not connected; all distances of a vertex are side by side */
+    private final double[] dist;
+
+    /**
+     * Pick landmarks on the graph and compute the distances from each of them.
+     *
+     * @param graph        The graph.
+     * @param numLandmarks How many landmarks to pick; fewer if more would not tighten
+     *                     any bound, as on graphs with fewer vertices.
+     */
+    public Landmarks(CompactGraph graph, int numLandmarks) {
+        this(graph, Metric.DISTANCE, numLandmarks);
+    }
+
+    /**
+     * Pick landmarks on the graph and compute the shortest path weights in the given
+     * metric from each of them.
+     */
+    public Landmarks(CompactGraph graph, Metric metric, int numLandmarks) {
+        double[] weights = graph.weights(metric);
+        int n = graph.numVertices();
+        List<Integer> picked = new ArrayList<>();
+        List<double[]> rows = new ArrayList<>();
+        double[] minDist = new double[n];
+        Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+        /* the first landmark is the vertex farthest from one in the largest component */
+        int next = farthestFrom(graph, weights, largestUnreached(graph, minDist));
+        while (next != -1 && picked.size() < numLandmarks) {
+            picked.add(next);
+            double[] d = shortestDistances(graph, weights, next);
+            rows.add(d);
+            for (int v = 0; v < n; v++) {
+                minDist[v] = Math.min(minDist[v], d[v]);
+            }
+            next = nextLandmark(graph, weights, minDist);
+        }
+
+        int k = picked.size();
+        landmarks = new int[k];
+        dist = new double[n * k];
+        for (int i = 0; i < k; i++) {
+            landmarks[i] = picked.get(i);
+            double[] d = rows.get(i);
+            for (int v = 0; v < n; v++) {
+                dist[v * k + i] = d[v];
+            }
+        }
+    }
+
+    private Landmarks(int[] landmarks, double[] dist) {
+        this.landmarks = landmarks;
+        this.dist = dist;
+    }
+
+    /* the vertex with the largest finite key, or -1 if there is none */
+    private static int farthest(double[] key) {
+        int best = -1;
+        for (int v = 0; v < key.length; v++) {
+            if (key[v] != Double.POSITIVE_INFINITY && (best == -1 || key[v] > key[best])) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /* the vertex farthest from source, in the component of source, or -1 if source is */
+    private static int farthestFrom(CompactGraph graph, double[] weights, int source) {
+        return source == -1 ? -1 : farthest(shortestDistances(graph, weights, source));
+    }
+
+    /* a vertex of the largest component no landmark reaches, or -1 if they all reach one */
+    private static int largestUnreached(CompactGraph graph, double[] minDist) {
+        int n = graph.numVertices();
+        boolean[] seen = new boolean[n];
+        int[] stack = new int[n];
+        int best = -1, bestSize = 0;
+        for (int u = 0; u < n; u++) {
+            if (seen[u] || minDist[u] != Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            int size = 0, top = 0;
+            stack[top++] = u;
+            seen[u] = true;
+            while (top > 0) {
+                int v = stack[--top];
+                size += 1;
+                for (int i = graph.edgeBegin(v); i < graph.edgeEnd(v); i++) {
+                    int w = graph.target(i);
+                    if (!seen[w]) {
+                        seen[w] = true;
+                        stack[top++] = w;
+                    }
+                }
+            }
+            if (size > bestSize) {
+                best = u;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the vertex farthest from all landmarks so far, given the distance of each
+     * vertex to its closest landmark. Once every reached vertex is at a landmark, the
+     * next one comes from the largest component without one, and when there is none
+     * either, -1.
+     */
+    private static int nextLandmark(CompactGraph graph, double[] weights, double[] minDist) {
+        int best = farthest(minDist);
+        if (minDist[best] > 0) {
+            return best;
+        }
+        return farthestFrom(graph, weights, largestUnreached(graph, minDist));
+    }
+
+    /* plain Dijkstra over the whole graph */
+    private static double[] shortestDistances(CompactGraph graph, double[] weights,
+                                              int source) {
+        double[] d = new double[graph.numVertices()];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        d[source] = 0.0;
+        PriorityQueue<QueueEntry> pq = new PriorityQueue<>();
+        pq.add(new QueueEntry(source, 0.0));
+        while (!pq.isEmpty()) {
+            QueueEntry e = pq.poll();
+            int v = e.node;
+            if (e.priority > d[v]) {
+                continue;
+            }
+            for (int i = graph.edgeBegin(v); i < graph.edgeEnd(v); i++) {
+                int w = graph.target(i);
+                double dw = d[v] + weights[i];
+                if (dw < d[w]) {
+                    d[w] = dw;
+                    pq.add(new QueueEntry(w, dw));
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Returns a lower bound on the distance between vertices v and t, or 0 if no
+     * landmark is connected to both.
+     */
+    public double lowerBound(int v, int t) {
+        int k = landmarks.length;
+        double bound = 0.0;
+        for (int i = 0, vi = v * k, ti = t * k; i < k; i++, vi++, ti++) {
+            double dv = dist[vi], dt = dist[ti];
+            if (dv != Double.POSITIVE_INFINITY && dt != Double.POSITIVE_INFINITY) {
+                bound = Math.max(bound, Math.abs(dt - dv));
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the vertex index of landmark i.
+     */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    public int numLandmarks() {
+        return landmarks.length;
+    }
+
+    /**
+     * Write the landmark tables, for GraphSnapshot.
+     */
+    void write(DataOutputStream out) throws IOException {
+        GraphSnapshot.writeInts(out, landmarks);
+        GraphSnapshot.writeDoubles(out, dist);
+    }
+
+    /**
+     * Read landmark tables written by write.
+     */
+    static Landmarks read(ByteBuffer in) {
+        int[] landmarks = GraphSnapshot.readInts(in);
+        double[] dist = GraphSnapshot.readDoubles(in);
+        return new Landmarks(landmarks, dist);
+    }
+}
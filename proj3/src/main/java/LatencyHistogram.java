@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets, in the style of
+ * HdrHistogram: every power of two is split into SUB_BUCKETS equal buckets, so any
+ * recorded value is known to within about 6% while the whole range of a long fits in
+ * under a thousand counters. Recording is lock-free and safe from many threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /* values below 2 * SUB_BUCKETS get a bucket each, then SUB_BUCKETS per power of two */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /* smallest value in bucket i */
+    static long lowestValueOf(int bucket) {
+        int shift = bucket / SUB_BUCKETS - 1;
+        if (shift <= 0) {
+            return bucket;
+        }
+        return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Record a duration; negative durations count as 0.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded durations, in nanoseconds.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound on the given quantile of the recorded durations, in
+     * nanoseconds, or 0 if nothing was recorded.
+     *
+     * @param quantile A number in [0, 1], such as 0.99.
+     */
+    public long quantile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                long upper = i + 1 < NUM_BUCKETS ? lowestValueOf(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, max());
+            }
+        }
+        return max();
+    }
+}
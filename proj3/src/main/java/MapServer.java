@@ -8,11 +8,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
-import java.util.LinkedList;
+import java.util.TreeSet;
+import java.util.Arrays;
 import java.util.Base64;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 
 /* Maven is used to pull in these dependencies. */
@@ -41,6 +45,14 @@ public class MapServer {
      * Each tile is 256x256 pixels.
      */
     public static final int TILE_SIZE = 256;
+    /**
+     * Deepest depth of the prebuilt tiles in IMG_ROOT; deeper tiles are drawn by tileRenderer.
+     */
+    public static final int PREBUILT_MAX_DEPTH = 7;
+    /**
+     * Deepest depth the server zooms in to, drawing the tiles past PREBUILT_MAX_DEPTH.
+     */
+    public static final int RENDERED_MAX_DEPTH = 10;
     /**
      * HTTP failed response.
      */
@@ -57,11 +69,65 @@ public class MapServer {
      * The tile images are in the IMG_ROOT folder.
      */
     private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    /**
+     * The tiles of IMG_ROOT packed by TileArchive; read instead of the folder when it exists.
+     */
+    private static final String TILE_ARCHIVE_PATH = "../library-sp18/data/proj3_imgs.tiles";
+    /**
+     * The tiles drawn by tileRenderer are kept in this folder, and reused across restarts
+     * until the map data changes.
+     */
+    private static final String RENDERED_TILE_ROOT = "../library-sp18/data/proj3_rendered/";
+    /**
+     * Most memory the decoded tile images kept in tileCache may take up.
+     */
+    private static final long TILE_CACHE_BYTES = 64L * 1024 * 1024;
+    /**
+     * Threads of tilePrefetcher; few, so prefetching never crowds out raster requests.
+     */
+    private static final int PREFETCH_THREADS =
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    /**
+     * Most tiles waiting for tilePrefetcher; about two views' worth of predictions.
+     */
+    private static final int PREFETCH_QUEUE_SIZE = 64;
+    /**
+     * Most memory the encoded images kept in rasterCache may take up.
+     */
+    private static final long RASTER_CACHE_BYTES = 32L * 1024 * 1024;
+    /**
+     * zlib level the raster pngs are compressed with; low levels encode several times
+     * faster for somewhat larger images, which the rasterCache then keeps.
+     */
+    private static final int RASTER_DEFLATE_LEVEL = 1;
+    /**
+     * Most memory the idle image buffers of rasterComposer may take up.
+     */
+    private static final long RASTER_BUFFER_POOL_BYTES = 32L * 1024 * 1024;
+    /**
+     * Most routes kept in routeCache, and how long each is kept after it was found.
+     */
+    private static final int ROUTE_CACHE_ENTRIES = 10000;
+    private static final long ROUTE_CACHE_TTL_MILLIS = 60L * 60 * 1000;
+    /**
+     * How long the route of a client is kept after its last request.
+     */
+    private static final long ROUTE_TTL_MILLIS = 30L * 60 * 1000;
+    /**
+     * Most client routes kept at once; tokens come from clients, so they are not trusted
+     * to stay few.
+     */
+    private static final int MAX_CLIENT_ROUTES = 10000;
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
      **/
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /**
+     * Binary snapshot of the graph built from OSM_DB_PATH, written on the first start
+     * and loaded instead of parsing the XML afterwards.
+     **/
+    private static final String GRAPH_SNAPSHOT_PATH = "../library-sp18/data/berkeley-2018.graph";
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -80,6 +146,22 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
+    /**
+     * Each isochrone request has the start location and a budget: "distance" in miles of
+     * road, or with metric=time, "time" in seconds of driving. Adding a "nodes" parameter
+     * also returns the ids of all reachable nodes.
+     */
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat"};
+    /**
+     * Search strategy used when a route request has no (or an unknown) "algorithm" parameter.
+     */
+    private static final Router.Algorithm DEFAULT_ROUTING_ALGORITHM =
+            Router.Algorithm.CONTRACTION_HIERARCHY;
+    /**
+     * What routes, matrices and isochrones use when a request has no (or an unknown)
+     * "metric" parameter; "time" asks for the fastest routes instead.
+     */
+    private static final Metric DEFAULT_METRIC = Metric.DISTANCE;
 
     /**
      * The result of rastering must be a map containing all of the
@@ -88,9 +170,38 @@ public class MapServer {
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
         "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
+    /**
+     * Number of completions a search request returns unless it gives a "limit".
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    /**
+     * Most points a single distance matrix request may ask for.
+     */
+    private static final int MAX_MATRIX_POINTS = 250;
+    /**
+     * Endpoints whose requests are counted and timed in metrics; static files are not.
+     */
+    private static final Set<String> INSTRUMENTED_ENDPOINTS = new TreeSet<>(Arrays.asList(
+            "/raster", "/raster_image", "/route", "/clear_route", "/search", "/matrix",
+            "/isochrone"));
+    /**
+     * Request attribute holding the System.nanoTime() at which a request came in.
+     */
+    private static final String REQUEST_START_ATTRIBUTE = "bearmaps.start";
+
     private static Rasterer rasterer;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    private static TileArchive tileArchive;
+    private static TileRenderer tileRenderer;
+    private static TileCache tileCache;
+    private static TilePrefetcher tilePrefetcher;
+    private static RasterCache rasterCache;
+    private static RasterComposer rasterComposer;
+    private static RouteStore routes;
+    private static RouteCache routeCache;
+    private static Metrics metrics;
+    /* changes whenever the map or tile files change; see dataVersion */
+    private static String mapVersion;
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -100,8 +211,60 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
-        rasterer = new Rasterer();
+        metrics = new Metrics();
+        mapVersion = dataVersion(OSM_DB_PATH, IMG_ROOT, TILE_ARCHIVE_PATH);
+        graph = GraphDB.load(OSM_DB_PATH, GRAPH_SNAPSHOT_PATH);
+        /* preprocess now rather than on the first route request */
+        for (Metric metric : Metric.values()) {
+            graph.contractionHierarchy(metric);
+            graph.landmarks(metric);
+        }
+        graph.autocompleteIndex();
+        rasterer = new Rasterer(ROOT_ULLAT, ROOT_LRLAT, ROOT_ULLON, ROOT_LRLON,
+                RENDERED_MAX_DEPTH);
+        tileArchive = openTileArchive();
+        tileRenderer = new TileRenderer(graph.compactGraph(), ROOT_ULLON, ROOT_ULLAT,
+                ROOT_LRLON, ROOT_LRLAT, TILE_SIZE, RENDERED_TILE_ROOT,
+                dataVersion(OSM_DB_PATH));
+        tileCache = new TileCache(TILE_CACHE_BYTES,
+                path -> metrics.time("tile_load", () -> readImage(path)));
+        tilePrefetcher = new TilePrefetcher(name -> getImage(IMG_ROOT + name),
+                name -> tileCache.contains(IMG_ROOT + name), RENDERED_MAX_DEPTH,
+                PREFETCH_THREADS, PREFETCH_QUEUE_SIZE);
+        rasterCache = new RasterCache(RASTER_CACHE_BYTES);
+        rasterComposer = new RasterComposer(TILE_SIZE, name -> getImage(IMG_ROOT + name),
+                Runtime.getRuntime().availableProcessors(), RASTER_DEFLATE_LEVEL,
+                RASTER_BUFFER_POOL_BYTES);
+        routes = new RouteStore(ROUTE_TTL_MILLIS, MAX_CLIENT_ROUTES);
+        routeCache = new RouteCache(ROUTE_CACHE_ENTRIES, ROUTE_CACHE_TTL_MILLIS);
+        registerCacheMetrics();
+    }
+
+    /**
+     * Expose the state of the caches in metrics.
+     */
+    private static void registerCacheMetrics() {
+        metrics.counter("tile_cache_hits", tileCache::hits);
+        metrics.counter("tile_cache_misses", tileCache::misses);
+        metrics.counter("tile_cache_evictions", tileCache::evictions);
+        metrics.gauge("tile_cache_bytes", tileCache::bytes);
+        metrics.counter("tiles_rendered", tileRenderer::rendered);
+        metrics.counter("tile_prefetch_submitted", tilePrefetcher::submitted);
+        metrics.counter("tile_prefetch_dropped", tilePrefetcher::dropped);
+        metrics.counter("tile_prefetch_loaded", tilePrefetcher::loaded);
+        metrics.gauge("tile_prefetch_queued", tilePrefetcher::queued);
+        metrics.counter("rendered_tile_disk_hits", tileRenderer::diskHits);
+        metrics.counter("raster_cache_hits", rasterCache::hits);
+        metrics.counter("raster_cache_misses", rasterCache::misses);
+        metrics.gauge("raster_cache_bytes", rasterCache::bytes);
+        metrics.gauge("raster_cache_hit_ratio", rasterCache::hitRatio);
+        metrics.gauge("raster_buffer_pool_bytes", rasterComposer::pooledBytes);
+        metrics.counter("route_cache_hits", routeCache::hits);
+        metrics.counter("route_cache_misses", routeCache::misses);
+        metrics.counter("route_cache_evictions", routeCache::evictions);
+        metrics.counter("route_cache_expirations", routeCache::expirations);
+        metrics.gauge("route_cache_entries", routeCache::size);
+        metrics.gauge("client_routes", routes::size);
     }
 
     public static void main(String[] args) {
@@ -110,9 +273,29 @@ public class MapServer {
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
         before((request, response) -> {
+            request.attribute(REQUEST_START_ATTRIBUTE, System.nanoTime());
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
+            response.header("Access-Control-Expose-Headers", "ETag, X-Raster-Ul-Lon, "
+                    + "X-Raster-Ul-Lat, X-Raster-Lr-Lon, X-Raster-Lr-Lat, X-Raster-Depth, "
+                    + "X-Raster-Width, X-Raster-Height");
+        });
+
+        /* Count and time the API requests. This runs after everything else, including
+         * halts and exception handlers, so the status is the one sent. */
+        afterAfter((request, response) -> {
+            Long start = request.attribute(REQUEST_START_ATTRIBUTE);
+            if (start != null && INSTRUMENTED_ENDPOINTS.contains(request.pathInfo())) {
+                metrics.recordRequest(request.pathInfo(), System.nanoTime() - start,
+                        response.status() >= 400);
+            }
+        });
+
+        /* Define the metrics endpoint, in the Prometheus text format. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return metrics.scrape();
         });
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
@@ -120,17 +303,19 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
             /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            Map<String, Object> rasteredImgParams = metrics.time("get_map_raster",
+                    () -> rasterer.getMapRaster(params));
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
             if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+                byte[] image = rasterImage(rasteredImgParams, routes.get(clientToken(req)));
+                String encodedImage = Base64.getEncoder().encodeToString(image);
                 rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+                /* only once the image is built, so prefetches do not compete with it */
+                tilePrefetcher.viewed(clientToken(req),
+                        (String[][]) rasteredImgParams.get("render_grid"));
             }
 
             /* Encode response to Json */
@@ -138,24 +323,133 @@ public class MapServer {
             return gson.toJson(rasteredImgParams);
         });
 
+        /* Same as /raster, but the response body is the png itself and the rest of the
+         * result is in X-Raster headers, which saves encoding the image as base64 JSON.
+         * Answers 204 when the query box does not overlap the map. */
+        get("/raster_image", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            Map<String, Object> rasteredImgParams = metrics.time("get_map_raster",
+                    () -> rasterer.getMapRaster(params));
+            if (!validateRasteredImgParams(rasteredImgParams)) {
+                res.status(204);
+                return "";
+            }
+
+            String[][] renderGrid = (String[][]) rasteredImgParams.get("render_grid");
+            List<Long> route = routes.get(clientToken(req));
+            String etag = rasterETag(renderGrid, route);
+            res.header("ETag", etag);
+            /* the URL stays the same when the route or the map changes, so a browser has
+               to ask every time and reuses its copy only on a 304; the client token in
+               it keeps shared caches from reusing the image for anyone else anyway */
+            res.header("Cache-Control", "private, no-cache");
+            res.header("X-Raster-Ul-Lon", rasteredImgParams.get("raster_ul_lon").toString());
+            res.header("X-Raster-Ul-Lat", rasteredImgParams.get("raster_ul_lat").toString());
+            res.header("X-Raster-Lr-Lon", rasteredImgParams.get("raster_lr_lon").toString());
+            res.header("X-Raster-Lr-Lat", rasteredImgParams.get("raster_lr_lat").toString());
+            res.header("X-Raster-Depth", rasteredImgParams.get("depth").toString());
+            res.header("X-Raster-Width", Integer.toString(renderGrid[0].length * TILE_SIZE));
+            res.header("X-Raster-Height", Integer.toString(renderGrid.length * TILE_SIZE));
+
+            if (etagMatches(req.headers("If-None-Match"), etag)) {
+                tilePrefetcher.viewed(clientToken(req), renderGrid);
+                res.status(304);
+                return "";
+            }
+            res.type("image/png");
+            byte[] image = rasterImage(rasteredImgParams, route);
+            /* only once the image is built, so prefetches do not compete with it */
+            tilePrefetcher.viewed(clientToken(req), renderGrid);
+            return image;
+        });
+
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            Router.Algorithm algorithm = Router.Algorithm.fromName(
+                    req.queryParams("algorithm"), DEFAULT_ROUTING_ALGORITHM);
+            Metric metric = Metric.fromName(req.queryParams("metric"), DEFAULT_METRIC);
+            long startId = graph.closest(params.get("start_lon"), params.get("start_lat"));
+            long destId = graph.closest(params.get("end_lon"), params.get("end_lat"));
+
+            /* a cached route was found by whichever algorithm was asked for first, so a
+               hit reports no settled nodes rather than a count of another search */
+            RouteCache.Entry cached = routeCache.get(startId, destId, metric);
+            Integer settled = null;
+            if (cached == null) {
+                Router.SearchResult search = metrics.time("shortest_path",
+                        () -> Router.search(graph, startId, destId, algorithm, metric));
+                settled = search.settled();
+                cached = routeCache.put(startId, destId, metric, search.path(), metrics.time(
+                        "route_directions", () -> Router.routeDirections(graph, search.path())));
+            }
+            List<Long> route = cached.route();
+            routes.put(clientToken(req), route);
+            String directions = getDirectionsText(cached.directions());
             Map<String, Object> routeParams = new HashMap<>();
             routeParams.put("routing_success", !route.isEmpty());
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
+            routeParams.put("cached", settled == null);
+            if (settled != null) {
+                routeParams.put("nodes_settled", settled);
+            }
             Gson gson = new Gson();
             return gson.toJson(routeParams);
         });
 
+        /* Define the distance matrix endpoint. The points are given as
+         * points=lon,lat;lon,lat;... either in the query string or in a form body. With
+         * metric=time the matrix holds the driving times in seconds of the fastest routes,
+         * as "durations" instead of "distances". */
+        spark.Route matrix = (req, res) -> {
+            double[][] points = getMatrixPoints(req);
+            Metric metric = Metric.fromName(req.queryParams("metric"), DEFAULT_METRIC);
+            double[][] distances = graph.distanceMatrix(points[0], points[1], metric);
+            /* JSON has no infinity, so unconnected pairs become null */
+            Double[][] json = new Double[distances.length][];
+            for (int i = 0; i < distances.length; i++) {
+                json[i] = new Double[distances[i].length];
+                for (int j = 0; j < distances[i].length; j++) {
+                    if (distances[i][j] != Double.POSITIVE_INFINITY) {
+                        json[i][j] = distances[i][j];
+                    }
+                }
+            }
+            Map<String, Object> matrixParams = new HashMap<>();
+            matrixParams.put(metric == Metric.TIME ? "durations" : "distances", json);
+            matrixParams.put("matrix_success", true);
+            Gson gson = new Gson();
+            return gson.toJson(matrixParams);
+        };
+        get("/matrix", matrix);
+        post("/matrix", matrix);
+
+        /* Define the isochrone endpoint: the area reachable within a distance or time. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            Metric metric = Metric.fromName(req.queryParams("metric"), DEFAULT_METRIC);
+            String budget = metric == Metric.TIME ? "time" : "distance";
+            params.putAll(getRequestParams(req, new String[]{budget}));
+            List<Long> nodes = Router.isochrone(graph, params.get("lon"), params.get("lat"),
+                    params.get(budget), metric);
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put("hull", Router.convexHull(graph, nodes));
+            isochroneParams.put("num_nodes", nodes.size());
+            if (req.queryParams().contains("nodes")) {
+                isochroneParams.put("nodes", nodes);
+            }
+            isochroneParams.put("isochrone_success", !nodes.isEmpty());
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(clientToken(req));
             return true;
         });
 
@@ -169,8 +463,17 @@ public class MapServer {
                 List<Map<String, Object>> data = getLocations(term);
                 return gson.toJson(data);
             } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
+                /* Search for the best ranked prefix matching strings, allowing typos. */
+                int limit = DEFAULT_SEARCH_LIMIT;
+                try {
+                    if (reqParams.contains("limit")) {
+                        limit = Integer.parseInt(req.queryParams("limit"));
+                    }
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                }
+                List<String> matches = graph.searchLocations(term, limit);
                 return gson.toJson(matches);
             }
         });
@@ -209,32 +512,77 @@ public class MapServer {
         return params;
     }
 
+    /**
+     * Parse the points parameter of a distance matrix request.
+     *
+     * @param req HTTP Request.
+     * @return The longitudes of the points, then their latitudes.
+     */
+    private static double[][] getMatrixPoints(spark.Request req) {
+        String param = req.queryParams("points");
+        if (param == null || param.trim().isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] points = param.trim().split(";");
+        if (points.length > MAX_MATRIX_POINTS) {
+            halt(HALT_RESPONSE, "Request failed - at most " + MAX_MATRIX_POINTS + " points.");
+        }
+        double[][] lonLats = new double[2][points.length];
+        for (int i = 0; i < points.length; i++) {
+            String[] lonLat = points[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(points[i]);
+                }
+                lonLats[0][i] = Double.parseDouble(lonLat[0].trim());
+                lonLats[1][i] = Double.parseDouble(lonLat[1].trim());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return lonLats;
+    }
+
+    /**
+     * Returns the png image corresponding to rasteredImgParams, taking it from rasterCache
+     * when possible. Images with a route drawn on them are neither looked up nor cached.
+     */
+    private static byte[] rasterImage(Map<String, Object> rasteredImageParams,
+                                      List<Long> currentRoute) {
+        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        boolean drawsRoute = currentRoute != null && !currentRoute.isEmpty();
+        String key = RasterCache.key(renderGrid);
+
+        byte[] image = drawsRoute ? null : rasterCache.get(key);
+        if (image != null) {
+            rasteredImageParams.put("raster_width", renderGrid[0].length * MapServer.TILE_SIZE);
+            rasteredImageParams.put("raster_height", renderGrid.length * MapServer.TILE_SIZE);
+            return image;
+        }
+
+        /* The png image is written to the ByteArrayOutputStream */
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeImagesToOutputStream(rasteredImageParams, currentRoute, os);
+        image = os.toByteArray();
+        if (!drawsRoute) {
+            rasterCache.put(key, image);
+        }
+        return image;
+    }
+
     /**
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+                                                  List<Long> currentRoute,
                                                   ByteArrayOutputStream os) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
 
-        BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
-                numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        BufferedImage img = rasterComposer.compose(renderGrid);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
-            }
-        }
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -244,12 +592,12 @@ public class MapServer {
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
+        if (currentRoute != null && !currentRoute.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
+            currentRoute.stream().reduce((v, w) -> {
                 g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
                         (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
                         (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
@@ -262,15 +610,113 @@ public class MapServer {
         rasteredImageParams.put("raster_height", img.getHeight());
 
         try {
-            ImageIO.write(img, "png", os);
+            rasterComposer.writePng(img, os);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            graphic.dispose();
+            rasterComposer.release(img);
+        }
+    }
+
+    /**
+     * Returns the entity tag of the raster image of renderGrid with route drawn on it.
+     * The image without a route only depends on the range of tiles.
+     */
+    private static String rasterETag(String[][] renderGrid, List<Long> route) {
+        String tag = mapVersion + ":" + RasterCache.key(renderGrid);
+        if (!route.isEmpty()) {
+            tag += ":" + routeDigest(route);
+        }
+        return "\"" + tag + "\"";
+    }
+
+    /**
+     * Returns the SHA-1 of the vertex ids of route, in hex. Unlike List.hashCode, two
+     * different routes practically never share it.
+     */
+    static String routeDigest(List<Long> route) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            ByteBuffer id = ByteBuffer.allocate(Long.BYTES);
+            for (long v : route) {
+                id.clear();
+                sha1.update(id.putLong(v).array());
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha1.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            /* every Java platform is required to have SHA-1 */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a tag that changes whenever any of the files or folders at paths is
+     * replaced, from their sizes and modification times. Missing ones count as well.
+     */
+    static String dataVersion(String... paths) {
+        long hash = 17;
+        for (String path : paths) {
+            File f = new File(path);
+            hash = 31 * hash + f.lastModified();
+            hash = 31 * hash + f.length();
         }
+        return Long.toHexString(hash);
+    }
 
+    /**
+     * Returns whether the If-None-Match header ifNoneMatch lists etag.
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static BufferedImage getImage(String imgPath) {
+        return tileCache.get(imgPath);
+    }
+
+    /**
+     * Map the tile archive, or return null to read the tiles from IMG_ROOT.
+     */
+    private static TileArchive openTileArchive() {
+        if (!new File(TILE_ARCHIVE_PATH).exists()) {
+            return null;
+        }
+        try {
+            return TileArchive.open(TILE_ARCHIVE_PATH);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static BufferedImage readImage(String imgPath) {
         BufferedImage tileImg = null;
+        String name = new File(imgPath).getName();
+        int[] tile = TileArchive.parseName(name);
+        if (tile != null && tile[0] > PREBUILT_MAX_DEPTH) {
+            return metrics.time("tile_render", () -> tileRenderer.tile(name));
+        }
+        if (tileArchive != null && imgPath.startsWith(IMG_ROOT)) {
+            try {
+                tileImg = tileArchive.read(imgPath.substring(IMG_ROOT.length()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         if (tileImg == null) {
             try {
                 File in = new File(imgPath);
@@ -283,14 +729,26 @@ public class MapServer {
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Clear the current found route of a client, if it exists.
+     *
+     * @param token The token of the client.
+     */
+    public static void clearRoute(String token) {
+        routes.clear(token);
+    }
+
+    /**
+     * Returns the token a request identifies its client with. Requests without one
+     * all share the same route.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    private static String clientToken(spark.Request req) {
+        String token = req.queryParams("token");
+        return token == null ? "" : token;
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect all the names of OSM locations that prefix-match the query string, best
+     * ranked first.
      *
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
@@ -341,11 +799,10 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes the directions of a route and converts them into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
-        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
+    private static String getDirectionsText(List<Router.NavigationDirection> directions) {
         if (directions == null || directions.isEmpty()) {
             return "";
         }
@@ -0,0 +1,28 @@
+/**
+ * What the weight of an edge is, and so what a shortest path minimizes.
+ */
+public enum Metric {
+    /** The length of the road, in miles. */
+    DISTANCE,
+    /** The time it takes to drive the road at its speed limit, in seconds. */
+    TIME;
+
+    /**
+     * Parse a request parameter such as "distance" or "time".
+     *
+     * @param name         The name of the metric, in any case.
+     * @param defaultValue What to return when name is null or unknown.
+     * @return The matching metric.
+     */
+    public static Metric fromName(String name, Metric defaultValue) {
+        if (name == null) {
+            return defaultValue;
+        }
+        for (Metric metric : values()) {
+            if (metric.name().equalsIgnoreCase(name)) {
+                return metric;
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Request counts, error counts and latency histograms per endpoint, latency histograms of
+ * named internal steps, and counters and gauges read when scraped. Everything is written out in the
+ * Prometheus text format by scrape(). Safe to use from many threads.
+ */
+public class Metrics {
+    private static final String PREFIX = "bearmaps_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /* sorted, so that scrapes list everything in the same order */
+    private final Map<String, LongAdder> requests = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> requestLatency = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    /**
+     * Record a request that was answered.
+     *
+     * @param endpoint The path of the endpoint, such as /route.
+     * @param nanos    How long the request took.
+     * @param error    Whether it was answered with an error status.
+     */
+    public void recordRequest(String endpoint, long nanos, boolean error) {
+        requests.computeIfAbsent(endpoint, e -> new LongAdder()).increment();
+        LongAdder errorCount = errors.computeIfAbsent(endpoint, e -> new LongAdder());
+        if (error) {
+            errorCount.increment();
+        }
+        requestLatency.computeIfAbsent(endpoint, e -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Returns the histogram of the timer with the given name, creating it if needed.
+     */
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the result of body, recording how long it took in the named timer, also
+     * when it throws.
+     */
+    public <T> T time(String name, Supplier<T> body) {
+        long start = System.nanoTime();
+        try {
+            return body.get();
+        } finally {
+            timer(name).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Register a counter kept elsewhere, such as the hits of a cache, whose value is read
+     * on every scrape. It must only ever grow while the server runs; it is written out
+     * with a _total suffix.
+     */
+    public void counter(String name, LongSupplier value) {
+        counters.put(name, value);
+    }
+
+    /**
+     * Register a gauge, a level that may go up and down, whose value is read on every
+     * scrape.
+     */
+    public void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public long requests(String endpoint) {
+        LongAdder count = requests.get(endpoint);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long errors(String endpoint) {
+        LongAdder count = errors.get(endpoint);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * Returns the latency histogram of an endpoint, or null if it has seen no requests.
+     */
+    public LatencyHistogram requestLatency(String endpoint) {
+        return requestLatency.get(endpoint);
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text exposition format. Durations are given
+     * in seconds.
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder();
+        writeCounters(sb, "requests_total", requests);
+        writeCounters(sb, "errors_total", errors);
+        writeHistograms(sb, "request_duration_seconds", "endpoint", requestLatency);
+        writeHistograms(sb, "timer_duration_seconds", "timer", timers);
+        for (Map.Entry<String, LongSupplier> counter : counters.entrySet()) {
+            String name = PREFIX + counter.getKey() + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(counter.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+            sb.append("# TYPE ").append(PREFIX).append(gauge.getKey()).append(" gauge\n");
+            sb.append(PREFIX).append(gauge.getKey()).append(' ')
+                    .append(format(gauge.getValue().getAsDouble())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void writeCounters(StringBuilder sb, String name,
+                                      Map<String, LongAdder> counts) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        for (Map.Entry<String, LongAdder> count : counts.entrySet()) {
+            sb.append(PREFIX).append(name).append(label("endpoint", count.getKey()))
+                    .append(' ').append(count.getValue().sum()).append('\n');
+        }
+    }
+
+    private static void writeHistograms(StringBuilder sb, String name, String labelName,
+                                        Map<String, LatencyHistogram> histograms) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String label = label(labelName, entry.getKey());
+            LatencyHistogram h = entry.getValue();
+            for (double q : QUANTILES) {
+                sb.append(PREFIX).append(name).append(label, 0, label.length() - 1)
+                        .append(",quantile=\"").append(q).append("\"} ")
+                        .append(seconds(h.quantile(q))).append('\n');
+            }
+            sb.append(PREFIX).append(name).append("_sum").append(label).append(' ')
+                    .append(seconds(h.sum())).append('\n');
+            sb.append(PREFIX).append(name).append("_count").append(label).append(' ')
+                    .append(h.count()).append('\n');
+        }
+        sb.append("# TYPE ").append(PREFIX).append(name).append("_max gauge\n");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            sb.append(PREFIX).append(name).append("_max").append(label(labelName,
+                    entry.getKey())).append(' ').append(seconds(entry.getValue().max()))
+                    .append('\n');
+        }
+    }
+
+    private static String label(String name, String value) {
+        return "{" + name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    private static String seconds(long nanos) {
+        return format(nanos / NANOS_PER_SECOND);
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,379 @@
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming, multi-threaded alternative to parsing with GraphBuildingHandler, for regions
+ * much larger than Berkeley. One thread reads the (optionally gzipped) OSM XML with a StAX
+ * reader and cuts it into batches; the nodes are split into shards by id, and each shard
+ * is owned by one worker thread that parses coordinates and builds the adjacency of its
+ * nodes. Since no two workers ever touch the same node, the graph is built without locks,
+ * and the shards are merged into the GraphDB at the end.
+ * <p>
+ * Like GraphBuildingHandler, this expects the nodes of a file to come before its ways.
+ */
+public class OsmImporter {
+    /* records per batch handed to a worker */
+    private static final int BATCH_SIZE = 4096;
+
+    /* batches waiting per worker before the reader blocks, bounding memory use */
+    private static final int MAX_PENDING_BATCHES = 16;
+
+    private final int numWorkers;
+
+    /* statistics of the last import */
+    private long elements;
+    private long elapsedNanos;
+    private long peakHeapBytes;
+
+    /**
+     * Create an importer that uses one worker thread per available processor.
+     */
+    public OsmImporter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an importer with the given number of worker threads.
+     *
+     * @param numWorkers The number of worker threads, at least 1.
+     */
+    public OsmImporter(int numWorkers) {
+        this.numWorkers = Math.max(1, numWorkers);
+    }
+
+    /**
+     * Open an OSM file for reading, decompressing it if it is gzipped.
+     *
+     * @param dbPath Path to the OSM XML file, optionally gzipped.
+     * @return A stream of the XML.
+     * @throws IOException If the file cannot be opened.
+     */
+    static InputStream open(String dbPath) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(dbPath), 1 << 16);
+        in.mark(2);
+        int magic = in.read() | (in.read() << 8);
+        in.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC) {
+            return new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+        }
+        return in;
+    }
+
+    /**
+     * One node parsed by the reader, coordinates still as text.
+     */
+    private static class NodeRecord {
+        long id;
+        String lon, lat;
+        String name;
+
+        NodeRecord(long id, String lon, String lat) {
+            this.id = id;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
+
+    /**
+     * Node id is followed by neighbor on a valid way named wayName (which may be null),
+     * with a speed limit of speed mph.
+     */
+    private static class EdgeRecord {
+        long id, neighbor;
+        String wayName;
+        double speed;
+
+        EdgeRecord(long id, long neighbor, String wayName, double speed) {
+            this.id = id;
+            this.neighbor = neighbor;
+            this.wayName = wayName;
+            this.speed = speed;
+        }
+    }
+
+    /**
+     * The nodes with id % numWorkers == index, only ever touched by its own worker thread.
+     */
+    private class Shard {
+        final ExecutorService worker = Executors.newSingleThreadExecutor();
+        final Semaphore pending = new Semaphore(MAX_PENDING_BATCHES);
+        final Map<Long, GraphDB.Node> nodes = new HashMap<>();
+        final Set<Long> valid = new HashSet<>();
+        List<NodeRecord> nodeBatch = new ArrayList<>(BATCH_SIZE);
+        List<EdgeRecord> edgeBatch = new ArrayList<>(BATCH_SIZE);
+
+        void addNodes(List<NodeRecord> batch) {
+            for (NodeRecord r : batch) {
+                GraphDB.Node nd = new GraphDB.Node(r.id,
+                        Double.parseDouble(r.lon), Double.parseDouble(r.lat));
+                if (r.name != null) {
+                    nd.info.put("name", r.name);
+                }
+                nodes.put(r.id, nd);
+            }
+        }
+
+        void addEdges(List<EdgeRecord> batch) {
+            for (EdgeRecord r : batch) {
+                GraphDB.Node nd = nodes.get(r.id);
+                if (nd == null) {
+                    continue;
+                }
+                valid.add(r.id);
+                if (r.neighbor != r.id) {
+                    nd.adjacent.merge(r.neighbor, r.speed, Math::max);
+                }
+                if (r.wayName != null) {
+                    nd.way.add(r.wayName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Import an OSM file into a new, cleaned GraphDB and print the import statistics.
+     *
+     * @param dbPath Path to the OSM XML file, optionally gzipped.
+     * @return The graph.
+     * @throws IOException If the file cannot be read or is not valid XML.
+     */
+    public GraphDB importGraph(String dbPath) throws IOException {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long start = System.nanoTime();
+        elements = 0;
+
+        GraphDB g = new GraphDB();
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < numWorkers; i++) {
+            shards.add(new Shard());
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try (InputStream in = open(dbPath)) {
+            read(in, g, shards, failure);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            for (Shard shard : shards) {
+                shard.worker.shutdown();
+            }
+        }
+
+        try {
+            for (Shard shard : shards) {
+                shard.worker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing " + dbPath, e);
+        }
+        if (failure.get() != null) {
+            throw new IOException("Failed to import " + dbPath, failure.get());
+        }
+
+        for (Shard shard : shards) {
+            g.rowNodes.putAll(shard.nodes);
+            for (long id : shard.valid) {
+                g.validNodes.put(id, shard.nodes.get(id));
+                g.ids.add(id);
+            }
+        }
+        g.clean();
+
+        elapsedNanos = System.nanoTime() - start;
+        peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format("Imported %d elements from %s in %.2f s "
+                        + "(%.0f elements/s, %d workers), peak heap %.1f MB.",
+                elements, dbPath, elapsedNanos / 1e9, elementsPerSecond(), numWorkers,
+                peakHeapBytes / (1024.0 * 1024.0)));
+        return g;
+    }
+
+    private void read(InputStream in, GraphDB g, List<Shard> shards,
+                      AtomicReference<Throwable> failure) throws XMLStreamException {
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+        /* the element we're in, and the node or way being read */
+        String activeState = "";
+        NodeRecord currentNode = null;
+        List<Long> wayNodes = new ArrayList<>();
+        boolean wayValid = false;
+        String wayName = null;
+        String highway = null, maxspeed = null;
+
+        while (reader.hasNext() && failure.get() == null) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (name.equals("node")) {
+                    activeState = "node";
+                    elements += 1;
+                    long id = Long.parseLong(reader.getAttributeValue(null, "id"));
+                    Shard shard = shardOf(shards, id);
+                    /* flush before adding, the name tag of this node is still to come */
+                    if (shard.nodeBatch.size() >= BATCH_SIZE) {
+                        flushNodes(shard, failure);
+                    }
+                    currentNode = new NodeRecord(id, reader.getAttributeValue(null, "lon"),
+                            reader.getAttributeValue(null, "lat"));
+                    shard.nodeBatch.add(currentNode);
+                } else if (name.equals("way")) {
+                    activeState = "way";
+                    elements += 1;
+                    wayNodes.clear();
+                    wayValid = false;
+                    wayName = null;
+                    highway = null;
+                    maxspeed = null;
+                    /* a way's nodes must exist before its edges arrive */
+                    for (Shard shard : shards) {
+                        flushNodes(shard, failure);
+                    }
+                } else if (activeState.equals("way") && name.equals("nd")) {
+                    wayNodes.add(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                } else if (activeState.equals("way") && name.equals("tag")) {
+                    String k = reader.getAttributeValue(null, "k");
+                    String v = reader.getAttributeValue(null, "v");
+                    if (k.equals("highway")) {
+                        wayValid = GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.contains(v);
+                        highway = v;
+                    } else if (k.equals("maxspeed")) {
+                        maxspeed = v;
+                    } else if (k.equals("name")) {
+                        wayName = v;
+                    }
+                } else if (activeState.equals("node") && name.equals("tag")
+                        && "name".equals(reader.getAttributeValue(null, "k"))) {
+                    currentNode.name = reader.getAttributeValue(null, "v");
+                    addName(g, currentNode.id, currentNode.name);
+                } else if (name.equals("relation")) {
+                    activeState = "relation";
+                    elements += 1;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT
+                    && reader.getLocalName().equals("way")) {
+                activeState = "";
+                if (wayValid && wayNodes.size() >= 2) {
+                    addWay(shards, wayNodes, wayName,
+                            GraphBuildingHandler.speedOf(highway, maxspeed), failure);
+                }
+            }
+        }
+        reader.close();
+
+        for (Shard shard : shards) {
+            flushNodes(shard, failure);
+            flushEdges(shard, failure);
+        }
+    }
+
+    /* names are few, so the reader indexes them itself */
+    private static void addName(GraphDB g, long id, String name) {
+        String cleanName = GraphDB.cleanString(name);
+        g.cleanNameToId.putIfAbsent(cleanName, new ArrayList<>());
+        g.cleanNameToId.get(cleanName).add(id);
+    }
+
+    private void addWay(List<Shard> shards, List<Long> wayNodes, String wayName, double speed,
+                        AtomicReference<Throwable> failure) {
+        for (int i = 0; i < wayNodes.size(); i++) {
+            long id = wayNodes.get(i);
+            Shard shard = shardOf(shards, id);
+            if (i > 0) {
+                shard.edgeBatch.add(new EdgeRecord(id, wayNodes.get(i - 1), wayName, speed));
+            }
+            if (i < wayNodes.size() - 1) {
+                shard.edgeBatch.add(new EdgeRecord(id, wayNodes.get(i + 1), wayName, speed));
+            }
+            if (shard.edgeBatch.size() >= BATCH_SIZE) {
+                flushEdges(shard, failure);
+            }
+        }
+    }
+
+    private Shard shardOf(List<Shard> shards, long id) {
+        return shards.get((int) Math.floorMod(id, (long) numWorkers));
+    }
+
+    private static void flushNodes(Shard shard, AtomicReference<Throwable> failure) {
+        if (shard.nodeBatch.isEmpty()) {
+            return;
+        }
+        List<NodeRecord> batch = shard.nodeBatch;
+        shard.nodeBatch = new ArrayList<>(BATCH_SIZE);
+        submit(shard, () -> shard.addNodes(batch), failure);
+    }
+
+    private static void flushEdges(Shard shard, AtomicReference<Throwable> failure) {
+        if (shard.edgeBatch.isEmpty()) {
+            return;
+        }
+        List<EdgeRecord> batch = shard.edgeBatch;
+        shard.edgeBatch = new ArrayList<>(BATCH_SIZE);
+        submit(shard, () -> shard.addEdges(batch), failure);
+    }
+
+    private static void submit(Shard shard, Runnable task, AtomicReference<Throwable> failure) {
+        shard.pending.acquireUninterruptibly();
+        shard.worker.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                shard.pending.release();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of nodes, ways and relations read by the last import.
+     */
+    public long elements() {
+        return elements;
+    }
+
+    /**
+     * Returns the throughput of the last import, in elements per second.
+     */
+    public double elementsPerSecond() {
+        return elapsedNanos == 0 ? 0 : elements / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * Returns the peak heap usage during the last import, in bytes.
+     */
+    public long peakHeapBytes() {
+        return peakHeapBytes;
+    }
+}
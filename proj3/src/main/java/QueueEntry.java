@@ -0,0 +1,20 @@
+/**
+ * A vertex index and its priority, for the PriorityQueues of preprocessing and spatial
+ * queries: contraction and witness searches in ContractionHierarchy, the Dijkstra
+ * searches of Landmarks, which skip stale entries rather than change a priority, and the
+ * k-nearest and radius queries of SpatialIndex. Route searches use an IndexedMinHeap.
+ */
+class QueueEntry implements Comparable<QueueEntry> {
+    int node;
+    double priority;
+
+    QueueEntry(int node, double priority) {
+        this.node = node;
+        this.priority = priority;
+    }
+
+    @Override
+    public int compareTo(QueueEntry o) {
+        return Double.compare(priority, o.priority);
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of encoded raster images. A rastered image only depends on
+ * its depth and the range of tiles it covers, which the top left and bottom right file
+ * names of the render grid spell out, so those make up the key. Bounded by the total
+ * size of the cached images. Safe to use from many threads.
+ */
+public class RasterCache {
+    private final long maxBytes;
+
+    /* access-ordered, so iteration starts at the least recently used image */
+    private final LinkedHashMap<String, byte[]> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private long hits, misses;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxBytes The most memory the cached images may take up.
+     */
+    public RasterCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache key of a render grid.
+     */
+    public static String key(String[][] renderGrid) {
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        return renderGrid[0][0] + ":" + lastRow[lastRow.length - 1];
+    }
+
+    /**
+     * Returns the encoded image for the key, or null if it is not cached.
+     */
+    public synchronized byte[] get(String key) {
+        byte[] image = images.get(key);
+        if (image == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return image;
+    }
+
+    /**
+     * Cache the encoded image for the key, evicting the least recently used images
+     * if the cache grows beyond its size.
+     */
+    public synchronized void put(String key, byte[] image) {
+        if (image.length > maxBytes) {
+            return;
+        }
+        byte[] old = images.put(key, image);
+        if (old != null) {
+            bytes -= old.length;
+        }
+        bytes += image.length;
+
+        Iterator<Map.Entry<String, byte[]>> it = images.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of lookups that were hits, or 0 before the first lookup.
+     */
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Returns the memory taken up by the cached images, in bytes.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RasterCache: %d images, %d/%d bytes, hit ratio %.3f",
+                images.size(), bytes, maxBytes, hitRatio());
+    }
+}
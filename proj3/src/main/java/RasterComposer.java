@@ -0,0 +1,207 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Composes a grid of tiles into one image and encodes it as a png. Tiles are fetched
+ * and drawn by a pool of worker threads, each into its own part of the image, and the
+ * images are taken from a pool of buffers keyed by grid size, so a busy server does
+ * not allocate a new image of several megabytes per request. Safe to use from many
+ * threads.
+ */
+public class RasterComposer {
+    /* Grids with fewer tiles than this are drawn on the calling thread. */
+    private static final int MIN_PARALLEL_TILES = 4;
+    /* The most buffers of one grid size kept around. */
+    private static final int MAX_POOLED_PER_SIZE = 2;
+
+    private final int tileSize;
+    private final Function<String, BufferedImage> tiles;
+    private final ExecutorService workers;
+    private final int parallelism;
+    private final int deflateLevel;
+
+    private final Map<Long, ArrayDeque<BufferedImage>> pool = new HashMap<>();
+    private final long maxPooledBytes;
+    private long pooledBytes;
+
+    /**
+     * Create a composer.
+     *
+     * @param tileSize       The width and height of a tile in pixels.
+     * @param tiles          Returns the decoded tile with a file name, or null if missing.
+     * @param parallelism    The number of worker threads; 1 draws on the calling thread.
+     * @param deflateLevel   The zlib compression level of the png, 0 (fastest) to 9
+     *                       (smallest), or -1 for the default of the png writer.
+     * @param maxPooledBytes The most memory the idle pooled buffers may take up.
+     */
+    public RasterComposer(int tileSize, Function<String, BufferedImage> tiles,
+                          int parallelism, int deflateLevel, long maxPooledBytes) {
+        if (deflateLevel < -1 || deflateLevel > 9) {
+            throw new IllegalArgumentException("deflateLevel must be in [-1, 9]");
+        }
+        this.tileSize = tileSize;
+        this.tiles = tiles;
+        this.parallelism = Math.max(1, parallelism);
+        this.deflateLevel = deflateLevel;
+        this.maxPooledBytes = maxPooledBytes;
+        this.workers = this.parallelism == 1 ? null
+                : Executors.newFixedThreadPool(this.parallelism, r -> {
+                    Thread t = new Thread(r, "raster-composer");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Returns the tiles of renderGrid drawn into one image, row by row. Missing tiles
+     * are left black. The image comes from the buffer pool; hand it back with release
+     * once it has been encoded.
+     */
+    public BufferedImage compose(String[][] renderGrid) {
+        int rows = renderGrid.length, cols = renderGrid[0].length;
+        BufferedImage img = acquire(cols * tileSize, rows * tileSize);
+
+        int numTiles = rows * cols;
+        if (workers == null || numTiles < MIN_PARALLEL_TILES) {
+            drawTiles(img, renderGrid, 0, numTiles);
+            return img;
+        }
+
+        /* split the tiles into contiguous runs, one per task */
+        int numTasks = Math.min(parallelism, numTiles);
+        List<Future<?>> futures = new ArrayList<>(numTasks);
+        for (int t = 0; t < numTasks; t++) {
+            int from = (int) ((long) numTiles * t / numTasks),
+                    to = (int) ((long) numTiles * (t + 1) / numTasks);
+            futures.add(workers.submit(() -> drawTiles(img, renderGrid, from, to)));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return img;
+    }
+
+    /* draws the tiles with index in [from, to), counting row by row */
+    private void drawTiles(BufferedImage img, String[][] renderGrid, int from, int to) {
+        int cols = renderGrid[0].length;
+        Graphics2D g = img.createGraphics();
+        try {
+            g.setColor(Color.BLACK);
+            for (int i = from; i < to; i++) {
+                int r = i / cols, c = i % cols;
+                BufferedImage tile = tiles.apply(renderGrid[r][c]);
+                /* a pooled buffer still holds its last image, so blank out gaps */
+                if (tile == null) {
+                    g.fillRect(c * tileSize, r * tileSize, tileSize, tileSize);
+                } else {
+                    g.drawImage(tile, c * tileSize, r * tileSize, null);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Writes img to os as a png, at the deflate level of this composer.
+     */
+    public void writePng(BufferedImage img, OutputStream os) throws IOException {
+        if (deflateLevel < 0) {
+            ImageIO.write(img, "png", os);
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(os)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            /* the png writer of Java 8 has no compression settings */
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(1f - deflateLevel / 9f);
+            }
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static long poolKey(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    private synchronized BufferedImage acquire(int width, int height) {
+        ArrayDeque<BufferedImage> free = pool.get(poolKey(width, height));
+        if (free != null && !free.isEmpty()) {
+            BufferedImage img = free.pop();
+            pooledBytes -= TileCache.sizeOf(img);
+            return img;
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Hands an image returned by compose back to the buffer pool. The image must not be
+     * used afterwards.
+     */
+    public synchronized void release(BufferedImage img) {
+        long size = TileCache.sizeOf(img);
+        if (size > maxPooledBytes) {
+            return;
+        }
+        ArrayDeque<BufferedImage> free = pool.computeIfAbsent(
+                poolKey(img.getWidth(), img.getHeight()), k -> new ArrayDeque<>());
+        if (free.size() >= MAX_POOLED_PER_SIZE) {
+            return;
+        }
+        free.push(img);
+        pooledBytes += size;
+
+        /* drop buffers of other sizes until the pool fits again */
+        Iterator<ArrayDeque<BufferedImage>> it = pool.values().iterator();
+        while (pooledBytes > maxPooledBytes && it.hasNext()) {
+            ArrayDeque<BufferedImage> other = it.next();
+            while (pooledBytes > maxPooledBytes && !other.isEmpty() && other != free) {
+                pooledBytes -= TileCache.sizeOf(other.pop());
+            }
+            if (other.isEmpty()) {
+                it.remove();
+            }
+        }
+        if (pooledBytes > maxPooledBytes) {
+            pooledBytes -= TileCache.sizeOf(free.pop());
+        }
+    }
+
+    /**
+     * Returns the memory taken up by the idle pooled buffers, in bytes.
+     */
+    public synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+}
@@ -6,22 +6,127 @@ import java.util.Map;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ * <p>
+ * A Rasterer holds no per-query state: a query is an immutable Query, its answer an
+ * immutable Result, so one Rasterer can serve any number of threads at once.
  */
 public class Rasterer {
 
-    private static double rootUpperLat, rootLowerLat, rootLeftLon, rootRightLon;
-    private double upperLat, lowerLat, leftLon, rightLon;
-    private static double rootLonDPP, maxDepth;
+    private final double rootUpperLat, rootLowerLat, rootLeftLon, rootRightLon;
+    private final double rootLonDPP;
+    private final int maxDepth;
 
     public Rasterer() {
-        // YOUR CODE HERE
-        rootUpperLat = MapServer.ROOT_ULLAT;
-        rootLowerLat = MapServer.ROOT_LRLAT;
-        rootLeftLon = MapServer.ROOT_ULLON;
-        rootRightLon = MapServer.ROOT_LRLON;
+        this(MapServer.ROOT_ULLAT, MapServer.ROOT_LRLAT, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLON, MapServer.PREBUILT_MAX_DEPTH);
+    }
+
+    /**
+     * Create a Rasterer for a tile pyramid with the given root bounds and depth.
+     */
+    public Rasterer(double rootUpperLat, double rootLowerLat, double rootLeftLon,
+                    double rootRightLon, int maxDepth) {
+        this.rootUpperLat = rootUpperLat;
+        this.rootLowerLat = rootLowerLat;
+        this.rootLeftLon = rootLeftLon;
+        this.rootRightLon = rootRightLon;
+        this.maxDepth = maxDepth;
 
         rootLonDPP = (rootRightLon - rootLeftLon) / MapServer.TILE_SIZE;
-        maxDepth = 7;
+    }
+
+    /**
+     * A query box and the user viewport size.
+     */
+    public static final class Query {
+        final double upperLat, lowerLat, leftLon, rightLon;
+        final double width, height;
+
+        public Query(double upperLat, double lowerLat, double leftLon, double rightLon,
+                     double width, double height) {
+            this.upperLat = upperLat;
+            this.lowerLat = lowerLat;
+            this.leftLon = leftLon;
+            this.rightLon = rightLon;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Read a query from the parameters of a raster request.
+         */
+        public static Query fromParams(Map<String, Double> params) {
+            return new Query(params.get("ullat"), params.get("lrlat"), params.get("ullon"),
+                    params.get("lrlon"), params.get("w"), params.get("h"));
+        }
+    }
+
+    /**
+     * The grid of tiles answering a Query: the tiles at the given depth whose column is
+     * in [left, right] and whose row is in [upper, lower], and the bounds they cover.
+     */
+    public static final class Result {
+        private static final Result FAILURE = new Result(false, 0, 0, -1, 0, -1, 0, 0, 0, 0);
+
+        final boolean success;
+        final int depth;
+        final int left, right, upper, lower;
+        final double ulLon, ulLat, lrLon, lrLat;
+
+        private Result(boolean success, int depth, int left, int right, int upper, int lower,
+                       double ulLon, double ulLat, double lrLon, double lrLat) {
+            this.success = success;
+            this.depth = depth;
+            this.left = left;
+            this.right = right;
+            this.upper = upper;
+            this.lower = lower;
+            this.ulLon = ulLon;
+            this.ulLat = ulLat;
+            this.lrLon = lrLon;
+            this.lrLat = lrLat;
+        }
+
+        /**
+         * Returns the file names of the tiles, row by row.
+         */
+        public String[][] renderGrid() {
+            String[][] grid = new String[lower - upper + 1][right - left + 1];
+            String prefix = "d" + depth + "_x",
+                    middle = "_y",
+                    suffix = ".png";
+            for (int i = upper; i <= lower; i++) {
+                for (int j = left; j <= right; j++) {
+                    grid[i - upper][j - left] = prefix + j + middle + i + suffix;
+                }
+            }
+            return grid;
+        }
+
+        /**
+         * Returns the result as the map described at getMapRaster.
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> results = new HashMap<>();
+            if (!success) {
+                String[] strs = {"render_grid", "raster_ul_lon", "raster_ul_lat",
+                    "raster_lr_lon", "raster_lr_lat", "depth"};
+                for (String str : strs) {
+                    results.put(str, null);
+                }
+                results.put("query_success", false);
+                return results;
+            }
+
+            results.put("render_grid", renderGrid());
+            results.put("raster_ul_lon", ulLon);
+            results.put("raster_ul_lat", ulLat);
+            results.put("raster_lr_lon", lrLon);
+            results.put("raster_lr_lat", lrLat);
+            results.put("depth", depth);
+            results.put("query_success", true);
+            return results;
+        }
     }
 
     /**
@@ -52,78 +157,24 @@ public class Rasterer {
      * forget to set this to true on success! <br>
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
-        // System.out.println(params);
-        Map<String, Object> results = new HashMap<>();
-        /*System.out.println("Since you haven't implemented getMapRaster, nothing is displayed in "
-                           + "your browser.");*/
-
-        initialize(params, results);
-
-        boolean querySuccess = basicCheck();
-        if (!querySuccess) {
-            return results;
-        } else {
-            results.put("query_success", true);
-        }
-
-        computeDepth(params, results);
-        amend(results);
-        computeGridAndSoOn(results);
-
-        // System.out.println(results);
-        return results;
-    }
-
-    private void initialize(Map<String, Double> params, Map<String, Object> results) {
-        upperLat = params.get("ullat");
-        lowerLat = params.get("lrlat");
-        leftLon = params.get("ullon");
-        rightLon = params.get("lrlon");
-
-        String[] strs = {"render_grid", "raster_ul_lon", "raster_ul_lat",
-            "raster_lr_lon", "raster_lr_lat", "depth"};
-        for (String str : strs) {
-            results.put(str, null);
-        }
-        results.put("query_success", false);
-    }
-
-    private boolean basicCheck() {
-        return (upperLat > lowerLat) && (leftLon < rightLon)
-                && (lowerLat < rootUpperLat)
-                && (upperLat > rootLowerLat)
-                && (rightLon > rootLeftLon)
-                && (leftLon < rootRightLon);
+        return raster(Query.fromParams(params)).toMap();
     }
 
-    private void amend(Map<String, Object> results) {
-        if (upperLat > rootUpperLat) {
-            upperLat = rootUpperLat;
-        }
-        if (lowerLat < rootLowerLat) {
-            lowerLat = rootLowerLat;
-        }
-        if (leftLon < rootLeftLon) {
-            leftLon = rootLeftLon;
-        }
-        if (rightLon > rootRightLon) {
-            rightLon = rootRightLon;
-        }
-    }
-
-    private void computeDepth(Map<String, Double> params, Map<String, Object> results) {
-        double goalLonDPP = (rightLon - leftLon) / params.get("w");
-        double lonDPP = rootLonDPP;
-        int depth = 0;
-        for (; lonDPP > goalLonDPP && depth < maxDepth; depth++) {
-            lonDPP /= 2;
+    /**
+     * Same as getMapRaster, on the immutable query and result types.
+     */
+    public Result raster(Query q) {
+        if (!basicCheck(q)) {
+            return Result.FAILURE;
         }
 
-        results.put("depth", depth);
-    }
+        int depth = computeDepth(q.leftLon, q.rightLon, q.width);
 
-    private void computeGridAndSoOn(Map<String, Object> results) {
-        int depth = (int) results.get("depth");
+        /* amend the query box to the root tile */
+        double upperLat = Math.min(q.upperLat, rootUpperLat),
+                lowerLat = Math.max(q.lowerLat, rootLowerLat),
+                leftLon = Math.max(q.leftLon, rootLeftLon),
+                rightLon = Math.min(q.rightLon, rootRightLon);
 
         /* compute d: denominator */
         double rootWidth = rootRightLon - rootLeftLon, rootHeight = rootUpperLat - rootLowerLat;
@@ -141,22 +192,28 @@ public class Rasterer {
                 lower = (int) Math.ceil((lowerHeight / rootHeight) * total) - 1;
 
         /* compute lon and lat related to tiles */
-        results.put("raster_ul_lon", (double) left / total * rootWidth + rootLeftLon);
-        results.put("raster_ul_lat", rootUpperLat - (double) upper / total * rootHeight);
-        results.put("raster_lr_lon", (double) (right + 1) / total * rootWidth + rootLeftLon);
-        results.put("raster_lr_lat", rootUpperLat - (double) (lower + 1) / total * rootHeight);
-
-        /* compute grid */
-        String[][] grid = new String[lower - upper + 1][right - left + 1];
-        String prefix = "d" + depth + "_x",
-                middle = "_y",
-                suffix = ".png";
-        for (int i = upper; i <= lower; i++) {
-            for (int j = left; j <= right; j++) {
-                grid[i - upper][j - left] = prefix + j + middle + i + suffix;
-            }
-        }
+        return new Result(true, depth, left, right, upper, lower,
+                (double) left / total * rootWidth + rootLeftLon,
+                rootUpperLat - (double) upper / total * rootHeight,
+                (double) (right + 1) / total * rootWidth + rootLeftLon,
+                rootUpperLat - (double) (lower + 1) / total * rootHeight);
+    }
 
-        results.put("render_grid", grid);
+    private boolean basicCheck(Query q) {
+        return (q.upperLat > q.lowerLat) && (q.leftLon < q.rightLon)
+                && (q.lowerLat < rootUpperLat)
+                && (q.upperLat > rootLowerLat)
+                && (q.rightLon > rootLeftLon)
+                && (q.leftLon < rootRightLon);
+    }
+
+    private int computeDepth(double leftLon, double rightLon, double width) {
+        double goalLonDPP = (rightLon - leftLon) / width;
+        double lonDPP = rootLonDPP;
+        int depth = 0;
+        for (; lonDPP > goalLonDPP && depth < maxDepth; depth++) {
+            lonDPP /= 2;
+        }
+        return depth;
     }
 }
@@ -0,0 +1,189 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Least-recently-used cache of routes and their directions, keyed by the start and
+ * destination vertices the request locations snapped to and the metric the route
+ * minimizes, so requests from nearby spots share an entry. Bounded by the number of
+ * entries, and an entry expires some time after it was computed. Safe to use from many
+ * threads.
+ */
+public class RouteCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    /* access-ordered, so iteration starts at the least recently used route */
+    private final LinkedHashMap<Key, Entry> routes = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits, misses, evictions, expirations;
+
+    private static final class Key {
+        final long startId, destId;
+        final Metric metric;
+
+        Key(long startId, long destId, Metric metric) {
+            this.startId = startId;
+            this.destId = destId;
+            this.metric = metric;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return startId == other.startId && destId == other.destId
+                    && metric == other.metric;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(startId) * 31 + Long.hashCode(destId)) * 31
+                    + metric.hashCode();
+        }
+    }
+
+    /**
+     * A cached route and its directions; both lists are unmodifiable.
+     */
+    public static final class Entry {
+        final List<Long> route;
+        final List<Router.NavigationDirection> directions;
+        final long created;
+
+        Entry(List<Long> route, List<Router.NavigationDirection> directions, long created) {
+            this.route = Collections.unmodifiableList(route);
+            this.directions = Collections.unmodifiableList(directions);
+            this.created = created;
+        }
+
+        public List<Long> route() {
+            return route;
+        }
+
+        public List<Router.NavigationDirection> directions() {
+            return directions;
+        }
+    }
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxEntries The most routes kept.
+     * @param ttlMillis  How long a route is kept after it was computed.
+     */
+    public RouteCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * Create an empty cache that reads the time in milliseconds from clock.
+     */
+    RouteCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the cached shortest route between two vertices, or null if there is none.
+     */
+    public Entry get(long startId, long destId) {
+        return get(startId, destId, Metric.DISTANCE);
+    }
+
+    /**
+     * Returns the cached route between two vertices that minimizes metric, or null if
+     * there is none.
+     */
+    public synchronized Entry get(long startId, long destId, Metric metric) {
+        Key key = new Key(startId, destId, metric);
+        Entry entry = routes.get(key);
+        if (entry != null && clock.getAsLong() - entry.created > ttlMillis) {
+            routes.remove(key);
+            expirations += 1;
+            entry = null;
+        }
+        if (entry == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache the shortest route between two vertices, evicting the least recently used
+     * route if the cache is full.
+     *
+     * @return The new entry.
+     */
+    public Entry put(long startId, long destId, List<Long> route,
+                     List<Router.NavigationDirection> directions) {
+        return put(startId, destId, Metric.DISTANCE, route, directions);
+    }
+
+    /**
+     * Cache the route between two vertices that minimizes metric, evicting the least
+     * recently used route if the cache is full.
+     *
+     * @return The new entry.
+     */
+    public synchronized Entry put(long startId, long destId, Metric metric, List<Long> route,
+                                  List<Router.NavigationDirection> directions) {
+        Entry entry = new Entry(route, directions, clock.getAsLong());
+        routes.put(new Key(startId, destId, metric), entry);
+
+        Iterator<Entry> it = routes.values().iterator();
+        while (routes.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions += 1;
+        }
+        return entry;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized long expirations() {
+        return expirations;
+    }
+
+    /**
+     * Returns the fraction of lookups that were hits, or 0 before the first lookup.
+     */
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Returns the number of cached routes, including expired ones not dropped yet.
+     */
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RouteCache: %d/%d routes, %d hits, %d misses, %d evictions, "
+                + "%d expirations", routes.size(), maxEntries, hits, misses, evictions,
+                expirations);
+    }
+}
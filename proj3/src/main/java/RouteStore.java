@@ -0,0 +1,108 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * The current route of every client, keyed by a client token. A route expires when its
+ * client has not touched it for a while, so abandoned sessions do not pile up, and the
+ * number of routes is capped, so clients making up new tokens cannot fill the heap
+ * either: past the cap the least recently used route is dropped. Safe to use from many
+ * threads.
+ */
+public class RouteStore {
+    private final long ttlMillis;
+    private final int maxRoutes;
+    private final LongSupplier clock;
+    private long lastSweep;
+
+    /* access-ordered, so iteration starts at the least recently used route */
+    private final LinkedHashMap<String, Entry> routes =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, RouteStore.Entry> eldest) {
+                    return size() > maxRoutes;
+                }
+            };
+
+    private static class Entry {
+        final List<Long> route;
+        long lastAccess;
+
+        Entry(List<Long> route, long lastAccess) {
+            this.route = route;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Create an empty store.
+     *
+     * @param ttlMillis How long a route is kept after its client last used it.
+     * @param maxRoutes The most routes kept at once.
+     */
+    public RouteStore(long ttlMillis, int maxRoutes) {
+        this(ttlMillis, maxRoutes, System::currentTimeMillis);
+    }
+
+    /**
+     * Create an empty store that reads the time in milliseconds from clock.
+     */
+    RouteStore(long ttlMillis, int maxRoutes, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.maxRoutes = maxRoutes;
+        this.clock = clock;
+        this.lastSweep = clock.getAsLong();
+    }
+
+    /**
+     * Returns the route of a client, or an empty list if it has none.
+     */
+    public synchronized List<Long> get(String token) {
+        Entry entry = routes.get(token);
+        long now = clock.getAsLong();
+        if (entry == null || now - entry.lastAccess > ttlMillis) {
+            return Collections.emptyList();
+        }
+        entry.lastAccess = now;
+        return entry.route;
+    }
+
+    /**
+     * Set the route of a client.
+     */
+    public synchronized void put(String token, List<Long> route) {
+        long now = clock.getAsLong();
+        routes.put(token, new Entry(Collections.unmodifiableList(route), now));
+        if (now - lastSweep > ttlMillis) {
+            lastSweep = now;
+            evictExpired(now);
+        }
+    }
+
+    /**
+     * Clear the route of a client, if it has one.
+     */
+    public synchronized void clear(String token) {
+        routes.remove(token);
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry> it = routes.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastAccess > ttlMillis) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of stored routes, including expired ones not evicted yet.
+     */
+    public synchronized int size() {
+        return routes.size();
+    }
+}
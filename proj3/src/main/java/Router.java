@@ -1,12 +1,9 @@
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Set;
-import java.util.HashMap;
-import java.util.Comparator;
-import java.util.PriorityQueue;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,77 +31,380 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        long startId = g.closest(stlon, stlat), destId = g.closest(destlon, destlat);
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR);
+    }
+
+    /**
+     * Search strategies for shortestPath.
+     */
+    public enum Algorithm {
+        /** A* straight on the graph, no preprocessing needed. */
+        ASTAR,
+        /** A* bounded by the triangle inequality over the graph's landmarks (ALT). */
+        ALT,
+        /** A* from both ends at once, meeting in the middle. */
+        BIDIRECTIONAL_ASTAR,
+        /** Bidirectional upward search on the graph's contraction hierarchy. */
+        CONTRACTION_HIERARCHY;
+
+        /**
+         * Parse a request parameter such as "astar" or "contraction_hierarchy".
+         *
+         * @param name         The name of the algorithm, in any case.
+         * @param defaultValue What to return when name is null or unknown.
+         * @return The matching algorithm.
+         */
+        public static Algorithm fromName(String name, Algorithm defaultValue) {
+            if (name == null) {
+                return defaultValue;
+            }
+            for (Algorithm algorithm : values()) {
+                if (algorithm.name().equalsIgnoreCase(name)) {
+                    return algorithm;
+                }
+            }
+            return defaultValue;
+        }
+    }
 
-        /* map node.id to minMoves*/
-        Map<Long, Double> idToMinMoves = new HashMap<>();
+    /**
+     * A path found by search, and how many vertices the search settled to find it.
+     */
+    public static final class SearchResult {
+        final List<Long> path;
+        final int settled;
 
-        /* map node.id to it's parent corresponds to minMoves */
-        Map<Long, Long> idToParent = new HashMap<>();
+        SearchResult(List<Long> path, int settled) {
+            this.path = path;
+            this.settled = settled;
+        }
 
-        /* map node.id to it's distanceToGoal */
-        /* be used mainly for comparing on pq, avoiding extra calculating */
-        Map<Long, Double> idToDistToGoal = new HashMap<>();
+        public List<Long> path() {
+            return path;
+        }
+
+        /**
+         * Returns the number of vertices removed from the priority queues, in all
+         * directions.
+         */
+        public int settled() {
+            return settled;
+        }
+    }
+
+    /**
+     * Same as shortestPath above, but with a choice of search strategy.
+     *
+     * @param g         The graph to use.
+     * @param stlon     The longitude of the start location.
+     * @param stlat     The latitude of the start location.
+     * @param destlon   The longitude of the destination location.
+     * @param destlat   The latitude of the destination location.
+     * @param algorithm The search strategy to use.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm) {
+        return search(g, stlon, stlat, destlon, destlat, algorithm).path;
+    }
 
-        /* id of node that has been removed from pq */
-        Set<Long> removedNodeId = new HashSet<>();
+    /**
+     * Same as shortestPath above, but the path minimizes the given metric, such as the
+     * driving time instead of the length.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm,
+                                          Metric metric) {
+        return search(g, stlon, stlat, destlon, destlat, algorithm, metric).path;
+    }
 
-        PriorityQueue<GraphDB.Node> pq = new PriorityQueue<>(
-                Comparator.comparingDouble(node ->
-                        idToMinMoves.get(node.id) + idToDistToGoal.get(node.id)));
+    /**
+     * Same as shortestPath, but also reports the work the search did.
+     */
+    public static SearchResult search(GraphDB g, double stlon, double stlat,
+                                      double destlon, double destlat, Algorithm algorithm) {
+        return search(g, stlon, stlat, destlon, destlat, algorithm, Metric.DISTANCE);
+    }
 
-        idToMinMoves.put(startId, 0.0);
-        idToParent.put(startId, Long.MAX_VALUE);
-        idToDistToGoal.put(startId, g.distance(startId, destId));
-        pq.add(g.getNode(startId));
+    /**
+     * Same as shortestPath with a metric, but also reports the work the search did.
+     */
+    public static SearchResult search(GraphDB g, double stlon, double stlat,
+                                      double destlon, double destlat, Algorithm algorithm,
+                                      Metric metric) {
+        long startId = g.closest(stlon, stlat), destId = g.closest(destlon, destlat);
+        return search(g, startId, destId, algorithm, metric);
+    }
 
-        long realDestId = startId;
-        while (!pq.isEmpty()) {
-            GraphDB.Node parentNode = pq.remove();
-            long parentId = parentNode.id;
+    /**
+     * Search the shortest path between two vertices. If there is none, the path leads
+     * to the vertex nearest to destId that can be reached from startId.
+     */
+    public static SearchResult search(GraphDB g, long startId, long destId,
+                                      Algorithm algorithm) {
+        return search(g, startId, destId, algorithm, Metric.DISTANCE);
+    }
 
-            // record nearest nodeId to destId, in case there's no way to destId
-            if (idToDistToGoal.get(realDestId) > idToDistToGoal.get(parentId)) {
-                realDestId = parentId;
+    /**
+     * Search the path between two vertices that minimizes the given metric. If there is
+     * none, the path leads to the vertex nearest to destId that can be reached from
+     * startId.
+     */
+    public static SearchResult search(GraphDB g, long startId, long destId,
+                                      Algorithm algorithm, Metric metric) {
+        int settled = 0;
+        if (algorithm == Algorithm.CONTRACTION_HIERARCHY) {
+            ContractionHierarchy ch = g.contractionHierarchy(metric);
+            List<Long> path = ch.shortestPath(startId, destId);
+            settled = ch.lastSettled();
+            // if there's no way to destId, let A* find the way to the nearest node instead
+            if (!path.isEmpty()) {
+                return new SearchResult(path, settled);
             }
-
-            if (parentId == destId) {
-                break;
+        } else if (algorithm == Algorithm.BIDIRECTIONAL_ASTAR) {
+            SearchResult result = bidirectionalAStar(g, startId, destId, metric);
+            if (!result.path.isEmpty()) {
+                return result;
             }
+            settled = result.settled;
+        }
+        Landmarks landmarks = algorithm == Algorithm.ALT ? g.landmarks(metric) : null;
+        SearchResult result = aStar(g, startId, destId, landmarks, metric);
+        return new SearchResult(result.path, settled + result.settled);
+    }
 
-            // if heuristic function <= actual cost,
-            // shortest path to removed node has been found
-            if (removedNodeId.contains(parentId)) {
-                continue;
+    /* A* with the straight line to dest as heuristic, or, given landmarks, the larger
+       of that and the landmark bound; both are consistent, and so is their maximum */
+    private static SearchResult aStar(GraphDB g, long startId, long destId,
+                                      Landmarks landmarks, Metric metric) {
+        CompactGraph cg = g.compactGraph();
+        double[] weights = cg.weights(metric);
+        int start = cg.indexOf(startId), dest = cg.indexOf(destId);
+
+        /* toGoal holds the straight line weight to dest and estimate the heuristic of
+           each reached vertex, both computed once */
+        SearchContext c = SearchContext.get(cg, 0);
+        c.toGoal[start] = cg.minWeight(start, dest, metric);
+        c.estimate[start] = estimate(c.toGoal[start], landmarks, start, dest);
+        c.reach(start, 0.0, -1, c.estimate[start]);
+
+        int realDest = start;
+        int settled = 0;
+        while (!c.heap.isEmpty()) {
+            int v = c.settle();
+            settled += 1;
+
+            // record nearest node to dest, in case there's no way to dest
+            if (c.toGoal[realDest] > c.toGoal[v]) {
+                realDest = v;
             }
-            removedNodeId.add(parentId);
 
-            for (long id : g.getNode(parentId).adjacent) {
+            if (v == dest) {
+                break;
+            }
 
-                double idMoves = idToMinMoves.get(parentId) + g.distance(parentId, id);
-                boolean containsKey = idToMinMoves.containsKey(id);
-                if (containsKey && idMoves >= idToMinMoves.get(id)) {
+            for (int e = cg.edgeBegin(v); e < cg.edgeEnd(v); e++) {
+                int w = cg.target(e);
+                double moves = c.dist[v] + weights[e];
+                if (c.settled(w) || moves >= c.dist(w)) {
                     continue;
                 }
-                if (!containsKey) {
-                    idToDistToGoal.put(id, g.distance(id, destId));
+                if (!c.reached(w)) {
+                    c.toGoal[w] = cg.minWeight(w, dest, metric);
+                    c.estimate[w] = estimate(c.toGoal[w], landmarks, w, dest);
                 }
+                c.reach(w, moves, v, moves + c.estimate[w]);
+            }
+        }
+
+        return new SearchResult(path(c, realDest, cg), settled);
+    }
+
+    /* node ids from the source of the search to v, following the parents */
+    private static List<Long> path(SearchContext c, int v, CompactGraph cg) {
+        List<Long> result = new ArrayList<>();
+        for (; v != -1; v = c.parent[v]) {
+            result.add(cg.id(v));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static double estimate(double distToGoal, Landmarks landmarks, int v, int dest) {
+        if (landmarks == null) {
+            return distToGoal;
+        }
+        return Math.max(distToGoal, landmarks.lowerBound(v, dest));
+    }
+
+    /**
+     * A* from start and from dest at once. Both searches use the average of the two
+     * straight line heuristics, pf(v) = (h(v, dest) - h(v, start)) / 2 forward and
+     * -pf(v) backward, which keeps the heuristic consistent on both sides, so the search
+     * can stop as soon as the smallest keys of the two queues add up to the best path
+     * found. Returns an empty path if dest can't be reached.
+     */
+    private static SearchResult bidirectionalAStar(GraphDB g, long startId, long destId,
+                                                   Metric metric) {
+        CompactGraph cg = g.compactGraph();
+        double[] weights = cg.weights(metric);
+        int start = cg.indexOf(startId), dest = cg.indexOf(destId);
+        if (start == dest) {
+            List<Long> result = new ArrayList<>();
+            result.add(startId);
+            return new SearchResult(result, 0);
+        }
 
-                idToMinMoves.put(id, idMoves);
-                idToParent.put(id, parentId);
-                pq.add(g.getNode(id));
+        /* index 0 is the forward search from start, 1 the backward search from dest;
+           ways are two-way, so both follow the same edges. The estimate of a vertex
+           holds its pf in the forward context. */
+        SearchContext[] sides = {SearchContext.get(cg, 0), SearchContext.get(cg, 1)};
+        SearchContext forward = sides[0];
+        forward.estimate[start] = potential(cg, metric, start, start, dest);
+        forward.reach(start, 0.0, -1, forward.estimate[start]);
+        sides[1].reach(dest, 0.0, -1, -potential(cg, metric, dest, start, dest));
+
+        double best = Double.POSITIVE_INFINITY;
+        /* the best path is start -> ... -> meetForward -> meetBackward -> ... -> dest */
+        int meetForward = -1, meetBackward = -1;
+        int settled = 0;
+
+        while (true) {
+            double forwardKey = sides[0].heap.minKey(), backwardKey = sides[1].heap.minKey();
+            if (forwardKey + backwardKey >= best) {
+                break;
             }
+            int side = forwardKey <= backwardKey ? 0 : 1;
+            SearchContext c = sides[side], other = sides[1 - side];
+
+            int v = c.settle();
+            settled += 1;
+
+            for (int e = cg.edgeBegin(v); e < cg.edgeEnd(v); e++) {
+                int w = cg.target(e);
+                double moves = c.dist[v] + weights[e];
+                if (moves < c.dist(w)) {
+                    double pf = potential(cg, metric, w, start, dest);
+                    c.reach(w, moves, v, moves + (side == 0 ? pf : -pf));
+                }
+                if (moves + other.dist(w) < best) {
+                    best = moves + other.dist(w);
+                    meetForward = side == 0 ? v : w;
+                    meetBackward = side == 0 ? w : v;
+                }
+            }
+        }
+
+        if (meetForward == -1) {
+            return new SearchResult(new ArrayList<>(), settled);
+        }
+        List<Long> result = path(sides[0], meetForward, cg);
+        for (int v = meetBackward; v != -1; v = sides[1].parent[v]) {
+            result.add(cg.id(v));
+        }
+        return new SearchResult(result, settled);
+    }
+
+    private static double potential(CompactGraph cg, Metric metric, int v, int start,
+                                    int dest) {
+        return (cg.minWeight(v, dest, metric) - cg.minWeight(v, start, metric)) / 2;
+    }
+
+    /**
+     * Returns every vertex within maxDistance of road from the vertex closest to a start
+     * location; see isochrone(GraphDB, double, double, double, Metric).
+     */
+    public static List<Long> isochrone(GraphDB g, double lon, double lat,
+                                       double maxDistance) {
+        return isochrone(g, lon, lat, maxDistance, Metric.DISTANCE);
+    }
+
+    /**
+     * Returns every vertex within a budget of the vertex closest to a start location,
+     * found by a Dijkstra search that stops at the budget. A vertex exactly at the budget
+     * is included. Many threads may run this at once; each reuses its own search state.
+     *
+     * @param g      The graph to use.
+     * @param lon    The longitude of the start location.
+     * @param lat    The latitude of the start location.
+     * @param budget The budget, in miles of road for DISTANCE or seconds for TIME.
+     * @param metric What the budget limits.
+     * @return The node ids in the order the search settled them, closest first.
+     */
+    public static List<Long> isochrone(GraphDB g, double lon, double lat, double budget,
+                                       Metric metric) {
+        CompactGraph cg = g.compactGraph();
+        SearchContext c = SearchContext.get(cg, 0);
+        double[] weights = cg.weights(metric);
+
+        List<Long> result = new ArrayList<>();
+        int start = cg.indexOf(g.closest(lon, lat));
+        if (start == -1) {
+            return result;
         }
+        c.reach(start, 0.0, -1, 0.0);
+
+        while (!c.heap.isEmpty()) {
+            int v = c.settle();
+            result.add(cg.id(v));
 
-        List<Long> result = new LinkedList<>();
-        long id = realDestId;
-        while (id != Long.MAX_VALUE) {
-            result.add(0, id);
-            id = idToParent.get(id);
+            for (int i = cg.edgeBegin(v); i < cg.edgeEnd(v); i++) {
+                int w = cg.target(i);
+                double d = c.dist[v] + weights[i];
+                if (d <= budget && d < c.dist(w)) {
+                    c.reach(w, d, v, d);
+                }
+            }
         }
         return result;
     }
 
+    /**
+     * Returns the convex hull of some vertices, treating longitude and latitude as plane
+     * coordinates, which is close enough over a city.
+     *
+     * @param g        The graph to use.
+     * @param vertices The ids of the vertices.
+     * @return The corners of the hull as {lon, lat} pairs, counterclockwise.
+     */
+    public static List<double[]> convexHull(GraphDB g, List<Long> vertices) {
+        double[][] points = new double[vertices.size()][];
+        for (int i = 0; i < points.length; i++) {
+            long v = vertices.get(i);
+            points[i] = new double[]{g.lon(v), g.lat(v)};
+        }
+        Arrays.sort(points, (a, b) -> a[0] != b[0]
+                ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]));
+
+        if (points.length < 3) {
+            return Arrays.asList(points);
+        }
+
+        /* Andrew's monotone chain: the lower hull left to right, then the upper hull back */
+        double[][] hull = new double[2 * points.length][];
+        int size = 0;
+        for (double[] p : points) {
+            while (size >= 2 && cross(hull[size - 2], hull[size - 1], p) <= 0) {
+                size -= 1;
+            }
+            hull[size++] = p;
+        }
+        for (int k = points.length - 2, lowerSize = size + 1; k >= 0; k--) {
+            double[] p = points[k];
+            while (size >= lowerSize && cross(hull[size - 2], hull[size - 1], p) <= 0) {
+                size -= 1;
+            }
+            hull[size++] = p;
+        }
+        /* the last point is the first one again */
+        return Arrays.asList(Arrays.copyOf(hull, size - 1));
+    }
+
+    /* positive if o -> a -> b turns counterclockwise */
+    private static double cross(double[] o, double[] a, double[] b) {
+        return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+    }
+
     /**
      * Create the list of directions corresponding to a route on the graph.
      *
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * The state of one graph search, kept per thread and reused from query to query, so
+ * that a search allocates nothing but its result. Per-vertex entries are only valid
+ * while their stamp equals the epoch of the current search, so starting a search is
+ * O(1) instead of refilling arrays as long as the graph.
+ */
+final class SearchContext {
+    /* contexts per thread; bidirectional search uses two at once */
+    private static final int POOL_SIZE = 2;
+
+    private static final ThreadLocal<SearchContext[]> POOL =
+            ThreadLocal.withInitial(() -> new SearchContext[POOL_SIZE]);
+
+    final CompactGraph graph;
+
+    /* best known weight from the source, and the vertex it was reached from */
+    final double[] dist;
+    final int[] parent;
+
+    /* per-vertex values a search computes once, such as its heuristic */
+    final double[] estimate;
+    final double[] toGoal;
+
+    final IndexedMinHeap heap;
+
+    private final int[] reachedStamp;
+    private final int[] settledStamp;
+    private int epoch;
+
+    private SearchContext(CompactGraph graph) {
+        this.graph = graph;
+        int n = graph.numVertices();
+        dist = new double[n];
+        parent = new int[n];
+        estimate = new double[n];
+        toGoal = new double[n];
+        heap = new IndexedMinHeap(n);
+        reachedStamp = new int[n];
+        settledStamp = new int[n];
+    }
+
+    /**
+     * Returns context number slot of this thread, reset for a new search on graph.
+     *
+     * @param slot 0, or 1 for the second context of a search that needs two.
+     */
+    static SearchContext get(CompactGraph graph, int slot) {
+        SearchContext[] pool = POOL.get();
+        SearchContext context = pool[slot];
+        if (context == null || context.graph != graph) {
+            context = new SearchContext(graph);
+            pool[slot] = context;
+        }
+        context.reset();
+        return context;
+    }
+
+    private void reset() {
+        heap.clear();
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(reachedStamp, 0);
+            Arrays.fill(settledStamp, 0);
+            epoch = 0;
+        }
+        epoch += 1;
+    }
+
+    boolean reached(int v) {
+        return reachedStamp[v] == epoch;
+    }
+
+    boolean settled(int v) {
+        return settledStamp[v] == epoch;
+    }
+
+    /**
+     * Returns the best known weight from the source to v, infinity if v was not reached.
+     */
+    double dist(int v) {
+        return reachedStamp[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Record a better way to v, through p, and queue it with the given key.
+     */
+    void reach(int v, double d, int p, double key) {
+        reachedStamp[v] = epoch;
+        dist[v] = d;
+        parent[v] = p;
+        heap.push(v, key);
+    }
+
+    /**
+     * Remove the vertex with the smallest key from the queue and mark it settled.
+     */
+    int settle() {
+        int v = heap.poll();
+        settledStamp[v] = epoch;
+        return v;
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * A 2-d tree over the vertices of a CompactGraph, for nearest-vertex queries.
+ * The tree is implicit: the vertices are stored in one array, the splitting vertex of a
+ * range is its middle element, and the levels alternate between splitting on longitude
+ * and on latitude. Subtrees are pruned with lower bounds on the great-circle distance,
+ * so the results agree with GraphDB.distance exactly.
+ */
+public class SpatialIndex {
+    private static final int LON = 0, LAT = 1;
+
+    /* vertex indices and their coordinates, in tree order */
+    private final int[] vertices;
+    private final double[] lons, lats;
+
+    /**
+     * Receives the vertices a search finds, and tells it how far to keep looking.
+     */
+    private abstract static class Collector {
+        /** Returns the distance beyond which no vertex is of interest anymore. */
+        abstract double bound();
+
+        abstract void offer(int vertex, double dist);
+    }
+
+    /**
+     * Build the index over all vertices of the graph.
+     *
+     * @param graph The graph whose vertices to index.
+     */
+    public SpatialIndex(CompactGraph graph) {
+        int n = graph.numVertices();
+        vertices = new int[n];
+        lons = new double[n];
+        lats = new double[n];
+        for (int v = 0; v < n; v++) {
+            vertices[v] = v;
+            lons[v] = graph.lon(v);
+            lats[v] = graph.lat(v);
+        }
+        build(0, n, LON);
+    }
+
+    private void build(int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        build(lo, mid, 1 - axis);
+        build(mid + 1, hi, 1 - axis);
+    }
+
+    /* quickselect: put the k-th smallest element of [lo, hi] along axis at k */
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            double pivot = coordinate(axis, (lo + hi) >>> 1);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coordinate(axis, i) < pivot) {
+                    i++;
+                }
+                while (coordinate(axis, j) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double coordinate(int axis, int i) {
+        return axis == LON ? lons[i] : lats[i];
+    }
+
+    private void swap(int i, int j) {
+        int v = vertices[i];
+        vertices[i] = vertices[j];
+        vertices[j] = v;
+        double lon = lons[i];
+        lons[i] = lons[j];
+        lons[j] = lon;
+        double lat = lats[i];
+        lats[i] = lats[j];
+        lats[j] = lat;
+    }
+
+    /**
+     * Returns the vertex closest to the given point, or -1 if the index is empty.
+     */
+    public int nearest(double lon, double lat) {
+        int[] best = {-1};
+        double[] bestDist = {Double.POSITIVE_INFINITY};
+        search(0, vertices.length, LON, lon, lat, new Collector() {
+            @Override
+            double bound() {
+                return bestDist[0];
+            }
+
+            @Override
+            void offer(int vertex, double dist) {
+                if (dist < bestDist[0]) {
+                    bestDist[0] = dist;
+                    best[0] = vertex;
+                }
+            }
+        });
+        return best[0];
+    }
+
+    /**
+     * Returns the k vertices closest to the given point, closest first.
+     */
+    public int[] kNearest(double lon, double lat, int k) {
+        if (k <= 0) {
+            return new int[0];
+        }
+        PriorityQueue<QueueEntry> farthestFirst = new PriorityQueue<>(Collections.reverseOrder());
+        search(0, vertices.length, LON, lon, lat, new Collector() {
+            @Override
+            double bound() {
+                return farthestFirst.size() < k
+                        ? Double.POSITIVE_INFINITY : farthestFirst.peek().priority;
+            }
+
+            @Override
+            void offer(int vertex, double dist) {
+                if (dist < bound()) {
+                    farthestFirst.add(new QueueEntry(vertex, dist));
+                    if (farthestFirst.size() > k) {
+                        farthestFirst.poll();
+                    }
+                }
+            }
+        });
+        return drain(farthestFirst);
+    }
+
+    /**
+     * Returns all vertices within the given great-circle distance of a point, closest first.
+     *
+     * @param lon    The longitude of the point.
+     * @param lat    The latitude of the point.
+     * @param radius The distance in miles.
+     */
+    public int[] withinRadius(double lon, double lat, double radius) {
+        PriorityQueue<QueueEntry> farthestFirst = new PriorityQueue<>(Collections.reverseOrder());
+        search(0, vertices.length, LON, lon, lat, new Collector() {
+            @Override
+            double bound() {
+                return radius;
+            }
+
+            @Override
+            void offer(int vertex, double dist) {
+                if (dist <= radius) {
+                    farthestFirst.add(new QueueEntry(vertex, dist));
+                }
+            }
+        });
+        return drain(farthestFirst);
+    }
+
+    private static int[] drain(PriorityQueue<QueueEntry> farthestFirst) {
+        int[] result = new int[farthestFirst.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = farthestFirst.poll().node;
+        }
+        return result;
+    }
+
+    private void search(int lo, int hi, int axis, double lon, double lat, Collector c) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        c.offer(vertices[mid], GraphDB.distance(lon, lat, lons[mid], lats[mid]));
+
+        double split = coordinate(axis, mid);
+        boolean belowFirst = (axis == LON ? lon : lat) < split;
+        if (belowFirst) {
+            search(lo, mid, 1 - axis, lon, lat, c);
+        } else {
+            search(mid + 1, hi, 1 - axis, lon, lat, c);
+        }
+        if (distanceToSplit(axis, split, lon, lat) <= c.bound()) {
+            if (belowFirst) {
+                search(mid + 1, hi, 1 - axis, lon, lat, c);
+            } else {
+                search(lo, mid, 1 - axis, lon, lat, c);
+            }
+        }
+    }
+
+    /* lower bound on the distance from a point to anything on the other side of a split */
+    private static double distanceToSplit(int axis, double split, double lon, double lat) {
+        if (axis == LAT) {
+            // no point at another latitude is closer than along the meridian
+            return GraphDB.EARTH_RADIUS * Math.toRadians(Math.abs(lat - split));
+        }
+        // distance to the great circle of the meridian at split
+        double dLambda = Math.toRadians(Math.abs(lon - split));
+        if (dLambda >= Math.PI / 2) {
+            return 0;
+        }
+        return GraphDB.EARTH_RADIUS * Math.asin(Math.sin(dLambda) * Math.cos(Math.toRadians(lat)));
+    }
+
+    /**
+     * Returns the number of indexed vertices.
+     */
+    public int size() {
+        return vertices.length;
+    }
+}
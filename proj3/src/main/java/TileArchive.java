@@ -0,0 +1,293 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The whole tile pyramid packed into one file, so a tile is read out of a single memory
+ * mapping rather than opened as a file of its own. The file holds a header, a table with
+ * the offset and length of every tile the pyramid can have, depth by depth and row by
+ * row, and then the png bytes of the tiles back to back. All numbers are big-endian, and
+ * a length of 0 marks a tile that was missing when the archive was packed.
+ */
+public class TileArchive {
+    private static final int MAGIC = 0x424d5441; // "BMTA"
+
+    /* bump whenever the layout changes */
+    private static final int VERSION = 1;
+
+    /* magic, version and deepest depth */
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    /* offset and length of a tile */
+    private static final int ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+    /* the table of a deeper pyramid would not fit in one mapping */
+    private static final int MAX_DEPTH = 12;
+
+    private static final String DEFAULT_IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    private static final String DEFAULT_ARCHIVE_PATH = "../library-sp18/data/proj3_imgs.tiles";
+
+    private final ByteBuffer data;
+    private final int maxDepth;
+
+    private TileArchive(ByteBuffer data, int maxDepth) {
+        this.data = data;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Pack the tiles found in imgRoot into an archive, replacing it if it exists.
+     * Files not named like the tiles are left out.
+     *
+     * @param imgRoot     The folder holding the d{depth}_x{x}_y{y}.png tiles.
+     * @param archivePath Path of the archive file.
+     * @return The number of tiles packed.
+     * @throws IOException If a tile cannot be read or the archive cannot be written.
+     */
+    public static int pack(String imgRoot, String archivePath) throws IOException {
+        File[] files = new File(imgRoot).listFiles();
+        if (files == null) {
+            throw new IOException(imgRoot + " is not a folder");
+        }
+        int maxDepth = -1;
+        for (File f : files) {
+            int[] tile = parseName(f.getName());
+            if (tile != null && f.isFile()) {
+                maxDepth = Math.max(maxDepth, tile[0]);
+            }
+        }
+        if (maxDepth < 0) {
+            throw new IOException("no tiles in " + imgRoot);
+        }
+
+        /* lengths first, so the table can be written ahead of the bytes */
+        File[] tiles = new File[numTiles(maxDepth)];
+        for (File f : files) {
+            int[] tile = parseName(f.getName());
+            if (tile != null && f.isFile()) {
+                tiles[index(tile[0], tile[1], tile[2])] = f;
+            }
+        }
+        long offset = HEADER_BYTES + (long) tiles.length * ENTRY_BYTES;
+        long[] offsets = new long[tiles.length];
+        int[] lengths = new int[tiles.length];
+        int packed = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] == null) {
+                continue;
+            }
+            offsets[i] = offset;
+            lengths[i] = (int) tiles[i].length();
+            offset += lengths[i];
+            packed += 1;
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("tiles in " + imgRoot + " do not fit in one mapping");
+        }
+
+        File tmp = new File(archivePath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(maxDepth);
+            for (int i = 0; i < tiles.length; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+            }
+            for (File tile : tiles) {
+                if (tile == null) {
+                    continue;
+                }
+                byte[] bytes = Files.readAllBytes(tile.toPath());
+                if (bytes.length != lengths[index(tile)]) {
+                    throw new IOException(tile + " changed while packing");
+                }
+                out.write(bytes);
+            }
+        }
+
+        Files.move(tmp.toPath(), Paths.get(archivePath), StandardCopyOption.REPLACE_EXISTING);
+        return packed;
+    }
+
+    /**
+     * Map an archive into memory.
+     *
+     * @param archivePath Path of the archive file.
+     * @return The archive, or null if the file is not an archive of the current version.
+     * @throws IOException If the file cannot be read.
+     */
+    public static TileArchive open(String archivePath) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(Paths.get(archivePath),
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(archivePath + " is too large to map");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.remaining() < HEADER_BYTES
+                || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            return null;
+        }
+        int maxDepth = data.getInt();
+        if (maxDepth < 0 || maxDepth > MAX_DEPTH
+                || data.remaining() < (long) numTiles(maxDepth) * ENTRY_BYTES) {
+            return null;
+        }
+        return new TileArchive(data, maxDepth);
+    }
+
+    /**
+     * Returns the deepest depth of the packed pyramid.
+     */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the png bytes of a tile as a read-only buffer over the mapping, or null if
+     * the tile is not in the archive. Safe to call from many threads.
+     */
+    public ByteBuffer tile(int depth, int x, int y) {
+        if (depth < 0 || depth > maxDepth || x < 0 || y < 0 || x >= 1 << depth
+                || y >= 1 << depth) {
+            return null;
+        }
+        int entry = HEADER_BYTES + index(depth, x, y) * ENTRY_BYTES;
+        long offset = data.getLong(entry);
+        int length = data.getInt(entry + Long.BYTES);
+        if (length == 0) {
+            return null;
+        }
+        /* a view of its own, since the position of a shared buffer is not thread-safe */
+        ByteBuffer tile = data.asReadOnlyBuffer();
+        tile.position((int) offset);
+        tile.limit((int) offset + length);
+        return tile.slice();
+    }
+
+    /**
+     * Returns the png bytes of the tile with the given file name, as at tile(), or null
+     * if the name is not that of a tile.
+     */
+    public ByteBuffer tile(String name) {
+        int[] tile = parseName(name);
+        return tile == null ? null : tile(tile[0], tile[1], tile[2]);
+    }
+
+    /**
+     * Returns the decoded image of the tile with the given file name, or null if it is
+     * not in the archive.
+     *
+     * @throws IOException If the tile bytes cannot be decoded.
+     */
+    public BufferedImage read(String name) throws IOException {
+        ByteBuffer tile = tile(name);
+        return tile == null ? null : ImageIO.read(new ByteBufferInputStream(tile));
+    }
+
+    /**
+     * Parse a tile file name such as "d3_x5_y2.png".
+     *
+     * @return The depth, x and y of the tile, or null if it is not such a name.
+     */
+    static int[] parseName(String name) {
+        int x = name.indexOf("_x"), y = name.indexOf("_y");
+        if (!name.startsWith("d") || !name.endsWith(".png") || x < 0 || y < x) {
+            return null;
+        }
+        try {
+            int[] tile = {
+                Integer.parseInt(name.substring(1, x)),
+                Integer.parseInt(name.substring(x + 2, y)),
+                Integer.parseInt(name.substring(y + 2, name.length() - ".png".length()))
+            };
+            if (tile[0] < 0 || tile[0] > MAX_DEPTH || tile[1] < 0 || tile[2] < 0
+                    || tile[1] >= 1 << tile[0] || tile[2] >= 1 << tile[0]) {
+                return null;
+            }
+            return tile;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /* tiles in a pyramid down to maxDepth: 1 + 4 + ... + 4^maxDepth */
+    private static int numTiles(int maxDepth) {
+        return ((1 << 2 * (maxDepth + 1)) - 1) / 3;
+    }
+
+    /* position of a tile in the table: the tiles above its depth, then row by row */
+    private static int index(int depth, int x, int y) {
+        return numTiles(depth - 1) + (y << depth) + x;
+    }
+
+    private static int index(File tile) {
+        int[] t = parseName(tile.getName());
+        return index(t[0], t[1], t[2]);
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer without copying them out first.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Pack the tiles of the server into its archive.
+     *
+     * @param args Optionally, the tile folder and the archive path.
+     */
+    public static void main(String[] args) throws IOException {
+        String imgRoot = args.length > 0 ? args[0] : DEFAULT_IMG_ROOT;
+        String archivePath = args.length > 1 ? args[1] : DEFAULT_ARCHIVE_PATH;
+        int packed = pack(imgRoot, archivePath);
+        System.out.println("Packed " + packed + " tiles into " + archivePath);
+    }
+}
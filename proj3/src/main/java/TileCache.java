@@ -0,0 +1,121 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Least-recently-used cache of decoded tile images, bounded by the memory the decoded
+ * pixels take up rather than by the number of tiles. Safe to use from many threads;
+ * a tile is decoded outside the lock, so two threads missing on the same tile at the
+ * same time may both decode it.
+ */
+public class TileCache {
+    private final long maxBytes;
+    private final Function<String, BufferedImage> loader;
+
+    /* access-ordered, so iteration starts at the least recently used tile */
+    private final LinkedHashMap<String, BufferedImage> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private long hits, misses, evictions;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxBytes The most memory the cached images may take up.
+     * @param loader   Decodes the image at a path on a miss; may return null, which
+     *                 is passed on to the caller and not cached.
+     */
+    public TileCache(long maxBytes, Function<String, BufferedImage> loader) {
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the decoded image at imgPath, loading it on a miss.
+     */
+    public BufferedImage get(String imgPath) {
+        synchronized (this) {
+            BufferedImage img = tiles.get(imgPath);
+            if (img != null) {
+                hits += 1;
+                return img;
+            }
+            misses += 1;
+        }
+
+        BufferedImage img = loader.apply(imgPath);
+        if (img != null) {
+            put(imgPath, img);
+        }
+        return img;
+    }
+
+    /**
+     * Returns whether the image at imgPath is cached, without counting as a use.
+     */
+    public synchronized boolean contains(String imgPath) {
+        return tiles.containsKey(imgPath);
+    }
+
+    private synchronized void put(String imgPath, BufferedImage img) {
+        long size = sizeOf(img);
+        if (size > maxBytes) {
+            return;
+        }
+        BufferedImage old = tiles.put(imgPath, img);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<String, BufferedImage>> it = tiles.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, BufferedImage> eldest = it.next();
+            bytes -= sizeOf(eldest.getValue());
+            it.remove();
+            evictions += 1;
+        }
+    }
+
+    /* memory taken up by the pixels of a decoded image */
+    static long sizeOf(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / Byte.SIZE;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the memory taken up by the cached images, in bytes.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of cached images.
+     */
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TileCache: %d tiles, %d/%d bytes, %d hits, %d misses, "
+                + "%d evictions", tiles.size(), bytes, maxBytes, hits, misses, evictions);
+    }
+}
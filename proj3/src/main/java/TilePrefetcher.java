@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Loads the tiles a client is likely to look at next in the background, so they are in
+ * the tile cache by the time its raster request comes in. From the last two viewports of
+ * a client it predicts the ring of tiles around the current one, a second ring on the
+ * side it is panning to, and the viewport at the next depth it is zooming to.
+ * <p>
+ * The tiles are loaded by a few low-priority threads from a bounded queue. When the
+ * queue is full the oldest predictions are dropped in favor of the new ones, since
+ * clients move on; a raster request never waits on a prefetch. Safe to use from many
+ * threads.
+ */
+public class TilePrefetcher {
+    /* the most clients whose last viewport is remembered */
+    private static final int MAX_CLIENTS = 1024;
+
+    private final Consumer<String> loader;
+    private final Predicate<String> cached;
+    private final int maxDepth;
+    private final ThreadPoolExecutor executor;
+
+    /* tiles queued or being loaded, so a tile is not queued twice */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    /* access-ordered, so the client seen longest ago is forgotten first */
+    private final LinkedHashMap<String, Viewport> viewports =
+            new LinkedHashMap<String, Viewport>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Viewport> eldest) {
+                    return size() > MAX_CLIENTS;
+                }
+            };
+
+    private final AtomicLong submitted = new AtomicLong(), dropped = new AtomicLong(),
+            loaded = new AtomicLong();
+
+    /**
+     * The grid of tiles a client looked at: the tiles at depth whose column is in
+     * [left, right] and whose row is in [upper, lower].
+     */
+    static final class Viewport {
+        final int depth, left, right, upper, lower;
+
+        Viewport(int depth, int left, int right, int upper, int lower) {
+            this.depth = depth;
+            this.left = left;
+            this.right = right;
+            this.upper = upper;
+            this.lower = lower;
+        }
+
+        /**
+         * Returns the viewport of a render grid, or null if its file names are not
+         * those of tiles.
+         */
+        static Viewport of(String[][] renderGrid) {
+            String[] lastRow = renderGrid[renderGrid.length - 1];
+            int[] ul = TileArchive.parseName(renderGrid[0][0]),
+                    lr = TileArchive.parseName(lastRow[lastRow.length - 1]);
+            if (ul == null || lr == null || ul[0] != lr[0]) {
+                return null;
+            }
+            return new Viewport(ul[0], ul[1], lr[1], ul[2], lr[2]);
+        }
+    }
+
+    /**
+     * A queued tile, so a prediction dropped from the queue can be let go of.
+     */
+    private final class Task implements Runnable {
+        final String name;
+
+        Task(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!cached.test(name)) {
+                    loader.accept(name);
+                    loaded.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                pending.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Create a prefetcher.
+     *
+     * @param loader    Loads the tile with a file name into the cache.
+     * @param cached    Returns whether the tile with a file name is in the cache already.
+     * @param maxDepth  The deepest depth there are tiles for.
+     * @param threads   The number of threads loading tiles.
+     * @param queueSize The most tiles waiting to be loaded.
+     */
+    public TilePrefetcher(Consumer<String> loader, Predicate<String> cached, int maxDepth,
+                          int threads, int queueSize) {
+        this.loader = loader;
+        this.cached = cached;
+        this.maxDepth = maxDepth;
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "tile-prefetcher");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }, (r, ex) -> {
+                    /* make room by dropping the oldest prediction */
+                    Runnable oldest = ex.getQueue().poll();
+                    if (oldest != null) {
+                        drop((Task) oldest);
+                    }
+                    if (ex.isShutdown() || !ex.getQueue().offer(r)) {
+                        drop((Task) r);
+                    }
+                });
+    }
+
+    private void drop(Task task) {
+        pending.remove(task.name);
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Record that a client looked at the tiles of renderGrid, and queue the tiles it is
+     * likely to look at next. Returns at once.
+     *
+     * @param client     The token of the client.
+     * @param renderGrid The file names of the tiles it looked at, row by row.
+     */
+    public void viewed(String client, String[][] renderGrid) {
+        Viewport current = Viewport.of(renderGrid);
+        if (current == null) {
+            return;
+        }
+        Viewport previous;
+        synchronized (viewports) {
+            previous = viewports.put(client, current);
+        }
+        for (String name : predict(previous, current, maxDepth)) {
+            if (!cached.test(name) && pending.add(name)) {
+                submitted.incrementAndGet();
+                executor.execute(new Task(name));
+            }
+        }
+    }
+
+    /**
+     * Returns the file names of the tiles a client is likely to look at after current,
+     * most likely first.
+     *
+     * @param previous The viewport the client looked at before, or null.
+     * @param current  The viewport the client looks at now.
+     * @param maxDepth The deepest depth there are tiles for.
+     */
+    static List<String> predict(Viewport previous, Viewport current, int maxDepth) {
+        /* the direction of the pan, if the client panned at the same depth */
+        int dx = 0, dy = 0;
+        if (previous != null && previous.depth == current.depth) {
+            dx = Integer.signum(current.left - previous.left);
+            dy = Integer.signum(current.upper - previous.upper);
+        }
+
+        /* the ring around the viewport, two tiles deep on the side it moves to */
+        int last = (1 << current.depth) - 1;
+        int left = Math.max(0, current.left - (dx < 0 ? 2 : 1)),
+                right = Math.min(last, current.right + (dx > 0 ? 2 : 1)),
+                upper = Math.max(0, current.upper - (dy < 0 ? 2 : 1)),
+                lower = Math.min(last, current.lower + (dy > 0 ? 2 : 1));
+        List<int[]> ring = new ArrayList<>();
+        for (int y = upper; y <= lower; y++) {
+            for (int x = left; x <= right; x++) {
+                if (x < current.left || x > current.right
+                        || y < current.upper || y > current.lower) {
+                    ring.add(new int[]{x, y});
+                }
+            }
+        }
+        /* tiles ahead of the pan first, those behind it last */
+        int fdx = dx, fdy = dy;
+        ring.sort(Comparator.comparingInt(t -> -(fdx * outside(t[0], current.left,
+                current.right) + fdy * outside(t[1], current.upper, current.lower))));
+
+        List<String> names = new ArrayList<>();
+        for (int[] t : ring) {
+            names.add(name(current.depth, t[0], t[1]));
+        }
+
+        /* then the next depth, deeper unless the client is zooming out */
+        boolean zoomingOut = previous != null && previous.depth > current.depth;
+        int depth = current.depth + (zoomingOut ? -1 : 1);
+        if (depth >= 0 && depth <= maxDepth) {
+            double scale = Math.pow(2, depth - current.depth);
+            int cols = current.right - current.left + 1,
+                    rows = current.lower - current.upper + 1;
+            /* as many tiles as now, around the same center, moved onto the map */
+            int side = 1 << depth;
+            int x0 = (int) Math.floor((current.left + current.right + 1) / 2.0 * scale
+                    - cols / 2.0),
+                    y0 = (int) Math.floor((current.upper + current.lower + 1) / 2.0 * scale
+                            - rows / 2.0);
+            x0 = Math.max(0, Math.min(x0, side - cols));
+            y0 = Math.max(0, Math.min(y0, side - rows));
+            for (int y = y0; y < Math.min(side, y0 + rows); y++) {
+                for (int x = x0; x < Math.min(side, x0 + cols); x++) {
+                    names.add(name(depth, x, y));
+                }
+            }
+        }
+        return names;
+    }
+
+    /* how far i is outside [lo, hi]: negative before it, positive after it */
+    private static int outside(int i, int lo, int hi) {
+        return i < lo ? i - lo : i > hi ? i - hi : 0;
+    }
+
+    private static String name(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+
+    /**
+     * Returns the number of tiles queued so far.
+     */
+    public long submitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Returns the number of queued tiles dropped to make room for newer ones so far.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of tiles loaded into the cache so far.
+     */
+    public long loaded() {
+        return loaded.get();
+    }
+
+    /**
+     * Returns the number of tiles waiting to be loaded.
+     */
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop loading tiles; queued tiles are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
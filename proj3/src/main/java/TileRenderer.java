@@ -0,0 +1,249 @@
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Draws tiles of the pyramid straight from the roads of a CompactGraph, for depths past
+ * those of the prebuilt images. Roads are found with an EdgeIndex and styled by their
+ * speed limit, at a width in meters, so they keep their size on the ground as the map
+ * is zoomed. Rendered tiles are written to a folder and read back from it afterwards, so
+ * each tile is drawn only once; keeping them in memory is up to the caller, such as a
+ * TileCache. The folder is kept apart per style and version of the map data, so tiles of
+ * an older map are never served. Safe to use from many threads; threads asking for the
+ * same tile at once share one drawing of it.
+ */
+public class TileRenderer {
+    /* bump whenever the look of the tiles changes, so older tiles on disk are not used */
+    private static final int STYLE_VERSION = 1;
+
+    /* cells along each side of the edge index; about a depth 8 tile each */
+    private static final int INDEX_GRID_SIZE = 256;
+
+    private static final double METERS_PER_DEGREE = 111320;
+    /* thinnest and thickest a road is drawn, in pixels */
+    private static final float MIN_ROAD_WIDTH_PX = 1.5f, MAX_ROAD_WIDTH_PX = 48f;
+    /* the casing is drawn this much wider than the road on each side, in pixels */
+    private static final float CASING_PX = 1f;
+
+    private static final Color BACKGROUND_COLOR = new Color(242, 239, 233);
+    private static final Color CASING_COLOR = new Color(180, 175, 165);
+
+    /**
+     * How a class of roads is drawn: the roads whose speed limit is at least minSpeed,
+     * and below that of the next class, in the given color and width.
+     */
+    private static final class RoadStyle {
+        final double minSpeed;
+        final Color color;
+        final double widthMeters;
+
+        RoadStyle(double minSpeed, Color color, double widthMeters) {
+            this.minSpeed = minSpeed;
+            this.color = color;
+            this.widthMeters = widthMeters;
+        }
+    }
+
+    /* from the slowest to the fastest, which is also the order they are drawn in */
+    private static final RoadStyle[] ROAD_STYLES = {
+        new RoadStyle(0, Color.WHITE, 8),
+        new RoadStyle(30, new Color(247, 250, 191), 12),
+        new RoadStyle(40, new Color(252, 214, 164), 16),
+        new RoadStyle(55, new Color(232, 146, 162), 20),
+    };
+
+    private final CompactGraph graph;
+    private final EdgeIndex edges;
+    private final double rootUlLon, rootUlLat, rootLrLon, rootLrLat;
+    private final int tileSize;
+    private final File cacheDir;
+    /* tiles being read or drawn right now, so each is loaded by one thread at a time */
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> loading =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong rendered = new AtomicLong(), diskHits = new AtomicLong();
+
+    /**
+     * Create a renderer for a tile pyramid with the given root bounds.
+     *
+     * @param graph       The graph whose roads to draw.
+     * @param tileSize    The width and height of a tile in pixels.
+     * @param cacheDir    The folder to keep rendered tiles in, created if missing, or null
+     *                    to draw every tile on each call.
+     * @param dataVersion A tag of the map data the graph was built from, such as one from
+     *                    MapServer.dataVersion; tiles drawn under another tag are not used.
+     */
+    public TileRenderer(CompactGraph graph, double rootUlLon, double rootUlLat,
+                        double rootLrLon, double rootLrLat, int tileSize, String cacheDir,
+                        String dataVersion) {
+        this.graph = graph;
+        this.rootUlLon = rootUlLon;
+        this.rootUlLat = rootUlLat;
+        this.rootLrLon = rootLrLon;
+        this.rootLrLat = rootLrLat;
+        this.tileSize = tileSize;
+        this.cacheDir = cacheDir == null ? null
+                : new File(cacheDir, "v" + STYLE_VERSION + "-" + dataVersion);
+        edges = new EdgeIndex(graph, rootUlLon, rootUlLat, rootLrLon, rootLrLat,
+                INDEX_GRID_SIZE);
+    }
+
+    /**
+     * Returns the tile with the given file name, such as "d9_x300_y12.png", from the
+     * cache folder, drawing and saving it there first if it is not in it yet. Returns
+     * null if the name is not that of a tile.
+     */
+    public BufferedImage tile(String name) {
+        int[] tile = TileArchive.parseName(name);
+        if (tile == null) {
+            return null;
+        }
+        CompletableFuture<BufferedImage> mine = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> running = loading.putIfAbsent(name, mine);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            BufferedImage img = load(name, tile);
+            mine.complete(img);
+            return img;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(name, mine);
+        }
+    }
+
+    /* reads the tile from the cache folder, or draws and saves it */
+    private BufferedImage load(String name, int[] tile) {
+        File f = cacheDir == null ? null : new File(cacheDir, name);
+        if (f != null && f.exists()) {
+            try {
+                BufferedImage img = ImageIO.read(f);
+                if (img != null) {
+                    diskHits.incrementAndGet();
+                    return img;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        BufferedImage img = render(tile[0], tile[1], tile[2]);
+        if (f != null) {
+            save(img, f);
+        }
+        return img;
+    }
+
+    /* written to a file of its own first, so a reader never sees half a tile */
+    private void save(BufferedImage img, File f) {
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            Path tmp = Files.createTempFile(cacheDir.toPath(), f.getName(), ".tmp");
+            try {
+                ImageIO.write(img, "png", tmp.toFile());
+                Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Draws the tile at column x and row y of the given depth.
+     */
+    public BufferedImage render(int depth, int x, int y) {
+        rendered.incrementAndGet();
+        double tiles = Math.pow(2, depth);
+        double lonPerTile = (rootLrLon - rootUlLon) / tiles,
+                latPerTile = (rootUlLat - rootLrLat) / tiles;
+        double ulLon = rootUlLon + x * lonPerTile, ulLat = rootUlLat - y * latPerTile;
+        double pxPerLon = tileSize / lonPerTile, pxPerLat = tileSize / latPerTile;
+        double pxPerMeter = pxPerLon / (METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(ulLat - latPerTile / 2)));
+
+        /* one path per road class; roads just outside the tile may still reach into it */
+        Path2D.Double[] paths = new Path2D.Double[ROAD_STYLES.length];
+        float[] widths = new float[ROAD_STYLES.length];
+        for (int i = 0; i < ROAD_STYLES.length; i++) {
+            paths[i] = new Path2D.Double();
+            widths[i] = (float) Math.max(MIN_ROAD_WIDTH_PX,
+                    Math.min(MAX_ROAD_WIDTH_PX, ROAD_STYLES[i].widthMeters * pxPerMeter));
+        }
+        double margin = (MAX_ROAD_WIDTH_PX / 2 + CASING_PX) / pxPerLon;
+        edges.forEachEdge(ulLon - margin, ulLat + margin,
+                ulLon + lonPerTile + margin, ulLat - latPerTile - margin, e -> {
+                int v = edges.source(e), w = graph.target(e);
+                Path2D.Double path = paths[styleOf(e)];
+                path.moveTo((graph.lon(v) - ulLon) * pxPerLon, (ulLat - graph.lat(v)) * pxPerLat);
+                path.lineTo((graph.lon(w) - ulLon) * pxPerLon, (ulLat - graph.lat(w)) * pxPerLat);
+            });
+
+        BufferedImage img = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                    RenderingHints.VALUE_STROKE_PURE);
+            g.setColor(BACKGROUND_COLOR);
+            g.fillRect(0, 0, tileSize, tileSize);
+            /* all casings first, so crossing roads join up instead of cutting each other */
+            g.setColor(CASING_COLOR);
+            for (int i = 0; i < ROAD_STYLES.length; i++) {
+                g.setStroke(new BasicStroke(widths[i] + 2 * CASING_PX, BasicStroke.CAP_ROUND,
+                        BasicStroke.JOIN_ROUND));
+                g.draw(paths[i]);
+            }
+            for (int i = 0; i < ROAD_STYLES.length; i++) {
+                g.setColor(ROAD_STYLES[i].color);
+                g.setStroke(new BasicStroke(widths[i], BasicStroke.CAP_ROUND,
+                        BasicStroke.JOIN_ROUND));
+                g.draw(paths[i]);
+            }
+        } finally {
+            g.dispose();
+        }
+        return img;
+    }
+
+    /* index into ROAD_STYLES of the class edge e belongs to */
+    private int styleOf(int e) {
+        double speed = graph.length(e) / graph.time(e) * CompactGraph.SECONDS_PER_HOUR;
+        int style = 0;
+        while (style + 1 < ROAD_STYLES.length && speed >= ROAD_STYLES[style + 1].minSpeed) {
+            style++;
+        }
+        return style;
+    }
+
+    /**
+     * Returns the number of tiles drawn so far.
+     */
+    public long rendered() {
+        return rendered.get();
+    }
+
+    /**
+     * Returns the number of tiles read back from the cache folder so far.
+     */
+    public long diskHits() {
+        return diskHits.get();
+    }
+}
@@ -55,9 +55,12 @@ $(function() {
         host = 'http://localhost:4567';
     }
     const raster_server = host + '/raster';
+    const raster_image_server = host + '/raster_image';
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
+    /* Identifies this page to the server, which keeps one route per token */
+    const client_token = Math.random().toString(36).substring(2) + Date.now().toString(36);
 
     /* ════════════════════════════ ೋღ HELPERS ღೋ ══════════════════════════ */
     /* Compute lat and lon by window size */
@@ -108,49 +111,57 @@ $(function() {
            updates which are called before ajax() is called #sigh #why #justjavascriptthings */
         $loadingStatus.show();
         getInProgress = true;
-        $.get({
-            async: true,
-            url: raster_server,
-            data: params,
-            success: function(data) {
-                console.log(data);
-                if (data.query_success) {
-                    $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
-                    console.log('Updating map with image length: ' +
-                                data.b64_encoded_image_data.length);
-                    ullon_bound = data.raster_ul_lon;
-                    ullat_bound = data.raster_ul_lat;
-                    lrlon_bound = data.raster_lr_lon;
-                    lrlat_bound = data.raster_lr_lat;
-                    current_level = data.depth;
-                    img_w = data.raster_width;
-                    img_h = data.raster_height;
-                    wdpp = (lrlon_bound - ullon_bound) / img_w;
-                    hdpp = (ullat_bound - lrlat_bound) / img_h;
-                    // Compute initial transform
-                    tx = - (params.ullon - ullon_bound) * (1 / wdpp);
-                    ty = (params.ullat - ullat_bound) * (1 / hdpp);
-                    rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
-                    rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
-                    updateMarkers();
-                    getInProgress = false;
-                    if (successCallback) {
-                        successCallback();
-                    }
-                } else {
-                    $loadingstatus.hide();
-                }
-            },
-            error: function() {
-                getInProgress = false;
-                $errorStatus.show();
-                setTimeout(function() {
-                    $errorStatus.fadeOut();
-                }, 4000);
-            },
-            dataType: 'json'
-        });
+        /* The image comes as raw png bytes, and what it covers in the X-Raster headers */
+        const xhr = new XMLHttpRequest();
+        xhr.open('GET', raster_image_server + '?' +
+                 $.param($.extend({token: client_token}, params)));
+        xhr.responseType = 'blob';
+        xhr.onload = function() {
+            if (xhr.status === 204) {
+                $loadingStatus.hide();
+                return;
+            }
+            if (xhr.status !== 200) {
+                xhr.onerror();
+                return;
+            }
+            $loadingStatus.hide();
+            if (map.src.startsWith('blob:')) {
+                URL.revokeObjectURL(map.src);
+            }
+            map.src = URL.createObjectURL(xhr.response);
+            console.log('Updating map with image length: ' + xhr.response.size);
+            const header = function(name) {
+                return parseFloat(xhr.getResponseHeader('X-Raster-' + name));
+            };
+            ullon_bound = header('Ul-Lon');
+            ullat_bound = header('Ul-Lat');
+            lrlon_bound = header('Lr-Lon');
+            lrlat_bound = header('Lr-Lat');
+            current_level = header('Depth');
+            img_w = header('Width');
+            img_h = header('Height');
+            wdpp = (lrlon_bound - ullon_bound) / img_w;
+            hdpp = (ullat_bound - lrlat_bound) / img_h;
+            // Compute initial transform
+            tx = - (params.ullon - ullon_bound) * (1 / wdpp);
+            ty = (params.ullat - ullat_bound) * (1 / hdpp);
+            rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
+            rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
+            updateMarkers();
+            getInProgress = false;
+            if (successCallback) {
+                successCallback();
+            }
+        };
+        xhr.onerror = function() {
+            getInProgress = false;
+            $errorStatus.show();
+            setTimeout(function() {
+                $errorStatus.fadeOut();
+            }, 4000);
+        };
+        xhr.send();
     }
 
     function updateT() {
@@ -170,7 +181,7 @@ $(function() {
         $.get({
             async: true,
             url: route_server,
-            data: route_params,
+            data: $.extend({token: client_token}, route_params),
             success: function(data) {
                 data = JSON.parse(data);
                 updateImg();
@@ -407,6 +418,7 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: {token: client_token},
             success: function() {
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Small made-up maps for tests that should not need the Berkeley data. A map is written
+ * out as OSM XML and parsed by GraphDB, so it is cleaned like a real one.
+ */
+public class GraphFixtures {
+    private final StringBuilder osm = new StringBuilder(
+            "<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\">\n");
+
+    /**
+     * Add a node at the given location.
+     */
+    public GraphFixtures node(long id, double lon, double lat) {
+        osm.append("<node id=\"").append(id).append("\" lat=\"").append(lat)
+                .append("\" lon=\"").append(lon).append("\"/>\n");
+        return this;
+    }
+
+    /**
+     * Add a residential way through the given nodes, without a speed limit.
+     */
+    public GraphFixtures way(long id, long... nodes) {
+        return way(id, "residential", null, nodes);
+    }
+
+    /**
+     * Add a way through the given nodes.
+     *
+     * @param maxspeed The maxspeed tag of the way, or null for none.
+     */
+    public GraphFixtures way(long id, String highway, String maxspeed, long... nodes) {
+        osm.append("<way id=\"").append(id).append("\">\n");
+        for (long nd : nodes) {
+            osm.append("<nd ref=\"").append(nd).append("\"/>\n");
+        }
+        osm.append("<tag k=\"highway\" v=\"").append(highway).append("\"/>\n");
+        if (maxspeed != null) {
+            osm.append("<tag k=\"maxspeed\" v=\"").append(maxspeed).append("\"/>\n");
+        }
+        osm.append("</way>\n");
+        return this;
+    }
+
+    /**
+     * Returns the graph of the map built so far.
+     */
+    public GraphDB build() throws IOException {
+        File f = File.createTempFile("fixture", ".osm.xml");
+        f.deleteOnExit();
+        Files.write(f.toPath(), (osm + "</osm>\n").getBytes(StandardCharsets.UTF_8));
+        return new GraphDB(f.getPath());
+    }
+
+    /**
+     * Returns the length of a path in g, in miles.
+     */
+    public static double length(GraphDB g, List<Long> path) {
+        double length = 0;
+        for (int i = 1; i < path.size(); i++) {
+            length += g.distance(path.get(i - 1), path.get(i));
+        }
+        return length;
+    }
+
+    /**
+     * Returns the time it takes to drive a path in g, in seconds, over the fastest edge
+     * between each two vertices.
+     */
+    public static double time(GraphDB g, List<Long> path) {
+        CompactGraph cg = g.compactGraph();
+        double time = 0;
+        for (int i = 1; i < path.size(); i++) {
+            int v = cg.indexOf(path.get(i - 1)), w = cg.indexOf(path.get(i));
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = cg.edgeBegin(v); e < cg.edgeEnd(v); e++) {
+                if (cg.target(e) == w) {
+                    best = Math.min(best, cg.time(e));
+                }
+            }
+            time += best;
+        }
+        return time;
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAutocompleteIndex {
+    private static AutocompleteIndex index() {
+        Map<String, Integer> frequency = new HashMap<>();
+        frequency.put("Top Dog", 1);
+        frequency.put("Tong's", 1);
+        frequency.put("Top Shelf", 1);
+        frequency.put("Toppings", 3);
+        frequency.put("Tip Top", 2);
+        frequency.put("Starbucks", 9);
+        return new AutocompleteIndex(frequency);
+    }
+
+    @Test
+    public void testRanking() {
+        AutocompleteIndex index = index();
+        /* more frequent first, then shorter, then alphabetical */
+        assertEquals(Arrays.asList("Toppings", "Tong's", "Top Dog", "Top Shelf"),
+                index.topK("to", 10));
+        assertEquals(Arrays.asList("Toppings", "Top Dog"), index.topK("TOP", 2));
+        assertEquals(Arrays.asList("Toppings", "Tip Top"), index.topK("t", 2));
+    }
+
+    @Test
+    public void testNoMatches() {
+        AutocompleteIndex index = index();
+        assertEquals(Collections.emptyList(), index.topK("x", 10));
+        assertEquals(Collections.emptyList(), index.topK("", 10));
+        assertEquals(Collections.emptyList(), index.topK("to", 0));
+        assertEquals(0, index.count("top dogs"));
+        assertEquals(4, index.count("to"));
+    }
+
+    @Test
+    public void testFuzzyPrefix() {
+        AutocompleteIndex index = index();
+        /* exact prefix matches first, then the ones a typo away */
+        assertEquals(Arrays.asList("Toppings", "Top Dog", "Top Shelf", "Tip Top", "Tong's"),
+                index.fuzzyTopK("top", 1, 10));
+        assertEquals(Arrays.asList("Starbucks"), index.fuzzyTopK("Stqrbu", 1, 10));
+        assertEquals(Arrays.asList("Starbucks"), index.fuzzyTopK("sratbu", 2, 10));
+        assertEquals(Collections.emptyList(), index.fuzzyTopK("sratbu", 1, 10));
+        /* the first letter has to be right */
+        assertEquals(Collections.emptyList(), index.fuzzyTopK("ztarbu", 2, 10));
+    }
+
+    @Test
+    public void testFuzzyMatches() {
+        AutocompleteIndex index = index();
+        assertEquals(Arrays.asList("Top Dog"), index.fuzzyMatches("top dgo", 2));
+        assertEquals(Arrays.asList("Tong's", "Toppings"), index.fuzzyMatches("topngs", 2));
+        assertEquals(Collections.emptyList(), index.fuzzyMatches("top", 1));
+    }
+}
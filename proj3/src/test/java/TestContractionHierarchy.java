@@ -0,0 +1,115 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that routes found through the contraction hierarchy are as short as the
+ * expected routes. Paths are compared by length, since ties may be broken differently.
+ */
+public class TestContractionHierarchy {
+    private static final double DISTANCE_THRESHOLD = 0.000000001;
+    private static final String PARAMS_FILE = "path_params.txt";
+    private static final String RESULTS_FILE = "path_results.txt";
+    private static final int NUM_TESTS = 8;
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testShortestPathLength() throws Exception {
+        List<String> params = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
+        List<String> results = Files.readAllLines(Paths.get(RESULTS_FILE),
+                Charset.defaultCharset());
+        int paramsIdx = 2, resultsIdx = 2; // ignore comment lines
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            System.out.println(String.format("Running test: %d", i));
+            List<Long> actual = Router.shortestPath(graph,
+                    Double.parseDouble(params.get(paramsIdx)),
+                    Double.parseDouble(params.get(paramsIdx + 1)),
+                    Double.parseDouble(params.get(paramsIdx + 2)),
+                    Double.parseDouble(params.get(paramsIdx + 3)),
+                    Router.Algorithm.CONTRACTION_HIERARCHY);
+            paramsIdx += 4;
+
+            int numVertices = Integer.parseInt(results.get(resultsIdx));
+            List<Long> expected = new ArrayList<>();
+            for (int j = 1; j <= numVertices; j++) {
+                expected.add(Long.parseLong(results.get(resultsIdx + j)));
+            }
+            resultsIdx += numVertices + 1;
+
+            assertEquals(expected.get(0), actual.get(0));
+            assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            assertEquals("Route is not a shortest path", GraphFixtures.length(graph, expected),
+                    GraphFixtures.length(graph, actual), DISTANCE_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void testDistanceMatrix() {
+        Random r = new Random(81);
+        int m = 12;
+        double[] lons = new double[m], lats = new double[m];
+        for (int i = 0; i < m; i++) {
+            lons[i] = MapServer.ROOT_ULLON + r.nextDouble() * (MapServer.ROOT_LRLON
+                    - MapServer.ROOT_ULLON);
+            lats[i] = MapServer.ROOT_LRLAT + r.nextDouble() * (MapServer.ROOT_ULLAT
+                    - MapServer.ROOT_LRLAT);
+        }
+
+        double[][] matrix = graph.distanceMatrix(lons, lats);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                List<Long> path = Router.shortestPath(graph, lons[i], lats[i], lons[j],
+                        lats[j]);
+                assertEquals(GraphFixtures.length(graph, path), matrix[i][j],
+                        DISTANCE_THRESHOLD);
+            }
+        }
+    }
+
+    @Test
+    public void testZeroLengthEdges() throws Exception {
+        /* 2, 3 and 4 are the same point, so the way through them has zero-length edges;
+           the way through 6 is a detour, and 7-8 is a road of its own */
+        GraphDB g = new GraphFixtures()
+                .node(1, 0.000, 38.0).node(2, 0.001, 38.0).node(3, 0.001, 38.0)
+                .node(4, 0.001, 38.0).node(5, 0.002, 38.0).node(6, 0.001, 38.001)
+                .node(7, 0.010, 38.0).node(8, 0.011, 38.0)
+                .way(1, 1, 2, 3, 4, 5).way(2, 1, 6, 5).way(3, 7, 8).build();
+        ContractionHierarchy ch = g.contractionHierarchy(Metric.DISTANCE);
+        long[] ids = {1, 2, 3, 4, 5, 6};
+        for (long start : ids) {
+            for (long dest : ids) {
+                List<Long> expected = Router.search(g, start, dest, Router.Algorithm.ASTAR)
+                        .path();
+                List<Long> actual = ch.shortestPath(start, dest);
+                assertEquals(start, (long) actual.get(0));
+                assertEquals(dest, (long) actual.get(actual.size() - 1));
+                assertEquals(GraphFixtures.length(g, expected), GraphFixtures.length(g, actual),
+                        DISTANCE_THRESHOLD);
+            }
+        }
+        assertEquals(0, GraphFixtures.length(g, ch.shortestPath(2, 4)), 0);
+        assertTrue(ch.shortestPath(1, 8).isEmpty());
+    }
+}
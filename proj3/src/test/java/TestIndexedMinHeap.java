@@ -0,0 +1,60 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the indexed heap against sorting, with decrease-key and reuse after clear.
+ */
+public class TestIndexedMinHeap {
+    private static final int CAPACITY = 1000;
+    private static final int NUM_ROUNDS = 20;
+
+    @Test
+    public void testPollOrder() {
+        Random r = new Random(22);
+        IndexedMinHeap heap = new IndexedMinHeap(CAPACITY);
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            double[] expected = new double[CAPACITY];
+            Arrays.fill(expected, Double.POSITIVE_INFINITY);
+            int n = r.nextInt(CAPACITY);
+            for (int i = 0; i < 3 * n; i++) {
+                int v = r.nextInt(n + 1);
+                double key = r.nextDouble();
+                heap.push(v, key);
+                expected[v] = Math.min(expected[v], key);
+            }
+
+            /* leave some in the heap for clear() to remove */
+            double last = Double.NEGATIVE_INFINITY;
+            int polls = round % 2 == 0 ? heap.size() : heap.size() / 2;
+            for (int i = 0; i < polls; i++) {
+                double key = heap.minKey();
+                int v = heap.poll();
+                assertEquals(expected[v], key, 0);
+                assertTrue(key >= last);
+                assertFalse(heap.contains(v));
+                last = key;
+            }
+            heap.clear();
+            assertTrue(heap.isEmpty());
+            assertEquals(Double.POSITIVE_INFINITY, heap.minKey(), 0);
+        }
+    }
+
+    @Test
+    public void testNoIncrease() {
+        IndexedMinHeap heap = new IndexedMinHeap(CAPACITY);
+        heap.push(3, 1.0);
+        heap.push(3, 2.0);
+        heap.push(5, 1.5);
+        assertEquals(2, heap.size());
+        assertEquals(1.0, heap.minKey(), 0);
+        assertEquals(3, heap.poll());
+        assertEquals(5, heap.poll());
+    }
+}
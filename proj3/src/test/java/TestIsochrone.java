@@ -0,0 +1,130 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks isochrones against the lengths of A* routes from the start to sampled nodes, and
+ * at the edges of the budget on a small made-up map.
+ */
+public class TestIsochrone {
+    private static final double DISTANCE_THRESHOLD = 0.000000001;
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int NUM_TESTS = 10;
+    private static final int NUM_SAMPLES = 50;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testReachableNodes() {
+        Random r = new Random(91);
+        CompactGraph cg = graph.compactGraph();
+        for (int i = 0; i < NUM_TESTS; i++) {
+            long start = cg.id(r.nextInt(cg.numVertices()));
+            double budget = r.nextDouble();
+            Set<Long> reachable = new HashSet<>(Router.isochrone(graph, graph.lon(start),
+                    graph.lat(start), budget));
+            assertTrue(reachable.contains(start));
+
+            for (int j = 0; j < NUM_SAMPLES; j++) {
+                long v = cg.id(r.nextInt(cg.numVertices()));
+                List<Long> path = Router.search(graph, start, v, Router.Algorithm.ASTAR).path();
+                double length = GraphFixtures.length(graph, path);
+                if (Math.abs(length - budget) < DISTANCE_THRESHOLD) {
+                    continue;
+                }
+                boolean expected = path.get(path.size() - 1) == v && length <= budget;
+                assertEquals(expected, reachable.contains(v));
+            }
+        }
+    }
+
+    @Test
+    public void testBudgetBoundaries() throws Exception {
+        /* a road 1-2-3-4; 8 sits on top of 1 and 5 on top of 3, each joined to it by a
+           zero-length road, and 6-7 is a road of its own */
+        GraphDB g = new GraphFixtures()
+                .node(1, 0.000, 38.0).node(2, 0.001, 38.0).node(3, 0.002, 38.0005)
+                .node(4, 0.004, 38.0).node(5, 0.002, 38.0005).node(8, 0.000, 38.0)
+                .node(6, 0.000, 38.001).node(7, 0.001, 38.001)
+                .way(1, 1, 2, 3, 4).way(2, 3, 5).way(3, 1, 8).way(4, 6, 7).build();
+        double toThree = GraphFixtures.length(g, Arrays.asList(1L, 2L, 3L));
+
+        /* a zero budget still reaches the nodes at no distance */
+        assertEquals(set(1L, 8L), new HashSet<>(Router.isochrone(g, 0, 38, 0)));
+        /* the budget is inclusive */
+        assertEquals(set(1L, 2L, 3L, 5L, 8L),
+                new HashSet<>(Router.isochrone(g, 0, 38, toThree)));
+        assertEquals(set(1L, 2L, 8L),
+                new HashSet<>(Router.isochrone(g, 0, 38, Math.nextDown(toThree))));
+        /* never across to another road */
+        assertEquals(set(1L, 2L, 3L, 4L, 5L, 8L),
+                new HashSet<>(Router.isochrone(g, 0, 38, 100)));
+    }
+
+    @Test
+    public void testTimeBudget() throws Exception {
+        /* 2 is close to 1 down a slow road, 3 is twice as far down a motorway */
+        GraphDB g = new GraphFixtures()
+                .node(1, 0.000, 38.0).node(2, 0.001, 38.0).node(3, -0.002, 38.0)
+                .way(1, "residential", "10 mph", 1, 2)
+                .way(2, "motorway", "60 mph", 1, 3).build();
+        double toTwo = GraphFixtures.time(g, Arrays.asList(1L, 2L));
+        double toThree = GraphFixtures.time(g, Arrays.asList(1L, 3L));
+        assertTrue(toThree < toTwo);
+
+        assertEquals(set(1L, 3L),
+                new HashSet<>(Router.isochrone(g, 0, 38, toThree, Metric.TIME)));
+        assertEquals(set(1L, 3L),
+                new HashSet<>(Router.isochrone(g, 0, 38, Math.nextDown(toTwo), Metric.TIME)));
+        assertEquals(set(1L, 2L, 3L),
+                new HashSet<>(Router.isochrone(g, 0, 38, toTwo, Metric.TIME)));
+        /* by distance the near node comes first */
+        assertEquals(set(1L, 2L), new HashSet<>(Router.isochrone(g, 0, 38,
+                GraphFixtures.length(g, Arrays.asList(1L, 2L)), Metric.DISTANCE)));
+    }
+
+    @Test
+    public void testHullContainsNodes() throws Exception {
+        GraphFixtures map = new GraphFixtures();
+        Random r = new Random(92);
+        long[] ids = new long[50];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+            map.node(ids[i], 0.01 * r.nextDouble(), 38 + 0.01 * r.nextDouble());
+        }
+        GraphDB g = map.way(1, ids).build();
+        List<Long> nodes = Router.isochrone(g, 0.005, 38.005, 0.2);
+        List<double[]> hull = Router.convexHull(g, nodes);
+        for (long v : nodes) {
+            for (int k = 0; k < hull.size(); k++) {
+                double[] a = hull.get(k), b = hull.get((k + 1) % hull.size());
+                double cross = (b[0] - a[0]) * (g.lat(v) - a[1])
+                        - (b[1] - a[1]) * (g.lon(v) - a[0]);
+                assertTrue(cross >= -DISTANCE_THRESHOLD);
+            }
+        }
+        /* fewer than three points are their own hull */
+        assertEquals(2, Router.convexHull(g, Arrays.asList(1L, 2L)).size());
+    }
+
+    private static Set<Long> set(Long... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,139 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the landmark bounds are lower bounds and that ALT search finds routes as
+ * short as plain A*.
+ */
+public class TestLandmarks {
+    private static final double DISTANCE_THRESHOLD = 0.000000001;
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int NUM_TESTS = 100;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testAltPathLength() {
+        Random r = new Random(71);
+        CompactGraph cg = graph.compactGraph();
+        Landmarks landmarks = graph.landmarks();
+        for (int i = 0; i < NUM_TESTS; i++) {
+            long start = cg.id(r.nextInt(cg.numVertices())),
+                    dest = cg.id(r.nextInt(cg.numVertices()));
+            List<Long> expected = Router.search(graph, start, dest, Router.Algorithm.ASTAR)
+                    .path();
+            List<Long> actual = Router.search(graph, start, dest, Router.Algorithm.ALT).path();
+            assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            assertEquals(GraphFixtures.length(graph, expected),
+                    GraphFixtures.length(graph, actual), DISTANCE_THRESHOLD);
+            if (expected.get(expected.size() - 1) == dest) {
+                double bound = landmarks.lowerBound(cg.indexOf(start), cg.indexOf(dest));
+                assertTrue(bound <= GraphFixtures.length(graph, expected) + DISTANCE_THRESHOLD);
+            }
+        }
+    }
+
+    @Test
+    public void testDetoursAndComponents() throws Exception {
+        /* a 4x4 grid of rows, where going from row 1 to row 2 means a detour by the right
+           end; node 50 sits on top of a corner, and 60-61 is a road of its own */
+        GraphFixtures map = new GraphFixtures();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                map.node(gridId(i, j), 0.001 * j, 38 + 0.001 * i);
+            }
+            map.way(10 + i, gridId(i, 0), gridId(i, 1), gridId(i, 2), gridId(i, 3));
+        }
+        map.way(20, gridId(0, 0), gridId(1, 0)).way(21, gridId(2, 0), gridId(3, 0))
+                .way(22, gridId(1, 3), gridId(2, 3))
+                .node(50, 0.003, 38.003).way(23, gridId(3, 3), 50)
+                .node(60, 0.010, 38.0).node(61, 0.011, 38.0).way(24, 60, 61);
+        GraphDB g = map.build();
+
+        CompactGraph cg = g.compactGraph();
+        Landmarks landmarks = g.landmarks();
+        assertTrue(landmarks.numLandmarks() <= cg.numVertices());
+        for (int v = 0; v < cg.numVertices(); v++) {
+            for (int t = 0; t < cg.numVertices(); t++) {
+                List<Long> expected = Router.search(g, cg.id(v), cg.id(t),
+                        Router.Algorithm.ASTAR).path();
+                List<Long> actual = Router.search(g, cg.id(v), cg.id(t),
+                        Router.Algorithm.ALT).path();
+                assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+                assertEquals(GraphFixtures.length(g, expected), GraphFixtures.length(g, actual),
+                        DISTANCE_THRESHOLD);
+                if (expected.get(expected.size() - 1) == cg.id(t)) {
+                    assertTrue(landmarks.lowerBound(v, t)
+                            <= GraphFixtures.length(g, expected) + DISTANCE_THRESHOLD);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExactOnChain() throws Exception {
+        /* on a single road the first landmark is one of its ends, which makes the bounds
+           exact */
+        GraphDB g = new GraphFixtures().node(1, 0.000, 38.0).node(2, 0.001, 38.0005)
+                .node(3, 0.003, 38.0).node(4, 0.004, 38.002).way(1, 1, 2, 3, 4).build();
+        CompactGraph cg = g.compactGraph();
+        Landmarks landmarks = new Landmarks(cg, 1);
+        for (int v = 0; v < cg.numVertices(); v++) {
+            for (int t = 0; t < cg.numVertices(); t++) {
+                List<Long> path = Router.search(g, cg.id(v), cg.id(t),
+                        Router.Algorithm.ASTAR).path();
+                assertEquals(GraphFixtures.length(g, path), landmarks.lowerBound(v, t),
+                        DISTANCE_THRESHOLD);
+            }
+        }
+    }
+
+    @Test
+    public void testFewerLandmarksThanAsked() throws Exception {
+        /* a road 1-2-3 with 6 on top of 2, and a road 4-5 of its own */
+        GraphDB g = new GraphFixtures()
+                .node(1, 0.000, 38.0).node(2, 0.001, 38.0).node(3, 0.002, 38.0)
+                .node(6, 0.001, 38.0).node(4, 0.000, 38.01).node(5, 0.001, 38.01)
+                .way(1, 1, 2, 3).way(2, 2, 6).way(3, 4, 5).build();
+        CompactGraph cg = g.compactGraph();
+        Landmarks landmarks = new Landmarks(cg, 16);
+
+        /* 6 is at no distance from 2, so it would not tighten any bound */
+        assertEquals(5, landmarks.numLandmarks());
+        Set<Long> picked = new HashSet<>();
+        for (int i = 0; i < landmarks.numLandmarks(); i++) {
+            assertTrue(picked.add(cg.id(landmarks.landmark(i))));
+        }
+        assertTrue(picked.contains(4L) && picked.contains(5L));
+        assertEquals(g.distance(4, 5),
+                landmarks.lowerBound(cg.indexOf(4), cg.indexOf(5)), DISTANCE_THRESHOLD);
+        assertEquals(0, landmarks.lowerBound(cg.indexOf(1), cg.indexOf(4)), 0);
+
+        /* with fewer asked for, the larger component gets them first */
+        Landmarks two = new Landmarks(cg, 2);
+        for (int i = 0; i < two.numLandmarks(); i++) {
+            assertTrue(cg.id(two.landmark(i)) <= 3);
+        }
+    }
+
+    private static long gridId(int i, int j) {
+        return 100 + 10 * i + j;
+    }
+}
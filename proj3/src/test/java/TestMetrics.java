@@ -0,0 +1,76 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks latency histogram buckets and quantiles, and the metrics scrape format.
+ */
+public class TestMetrics {
+    /* four sub-bucket bits keep every value within 1/16 of its bucket */
+    private static final double RELATIVE_ERROR = 1.0 / 16;
+
+    @Test
+    public void testBuckets() {
+        int previous = -1;
+        for (long v = 0; v < 1 << 20; v++) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(LatencyHistogram.lowestValueOf(bucket) <= v);
+            assertTrue(v < LatencyHistogram.lowestValueOf(bucket + 1));
+            previous = bucket;
+        }
+        assertTrue(LatencyHistogram.bucketOf(Long.MAX_VALUE) >= 0);
+    }
+
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.quantile(0.5));
+        Random r = new Random(19);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + r.nextInt(1000000);
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, h.count());
+        assertEquals(values[values.length - 1], h.max());
+        for (double q : new double[]{0.5, 0.9, 0.99, 1}) {
+            long exact = values[(int) Math.ceil(q * values.length) - 1];
+            long estimate = h.quantile(q);
+            assertTrue(estimate >= exact);
+            assertTrue(estimate <= exact * (1 + RELATIVE_ERROR));
+        }
+    }
+
+    @Test
+    public void testScrape() {
+        Metrics metrics = new Metrics();
+        metrics.recordRequest("/route", 2000000, false);
+        metrics.recordRequest("/route", 4000000, true);
+        assertEquals("ok", metrics.time("shortest_path", () -> "ok"));
+        metrics.gauge("route_cache_entries", () -> 3);
+        metrics.counter("route_cache_hits", () -> 5);
+        assertEquals(2, metrics.requests("/route"));
+        assertEquals(1, metrics.errors("/route"));
+        assertEquals(0, metrics.requests("/raster"));
+
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("bearmaps_requests_total{endpoint=\"/route\"} 2\n"));
+        assertTrue(scrape.contains("bearmaps_errors_total{endpoint=\"/route\"} 1\n"));
+        assertTrue(scrape.contains("bearmaps_request_duration_seconds_count"
+                + "{endpoint=\"/route\"} 2\n"));
+        assertTrue(scrape.contains("bearmaps_request_duration_seconds_sum"
+                + "{endpoint=\"/route\"} 0.006\n"));
+        assertTrue(scrape.contains("bearmaps_timer_duration_seconds_count"
+                + "{timer=\"shortest_path\"} 1\n"));
+        assertTrue(scrape.contains("# TYPE bearmaps_route_cache_entries gauge\n"));
+        assertTrue(scrape.contains("bearmaps_route_cache_entries 3.0\n"));
+        assertTrue(scrape.contains("# TYPE bearmaps_route_cache_hits_total counter\n"));
+        assertTrue(scrape.contains("bearmaps_route_cache_hits_total 5\n"));
+    }
+}
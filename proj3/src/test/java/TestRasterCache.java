@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRasterCache {
+    private static final int IMAGE_BYTES = 1000;
+
+    private static byte[] image() {
+        return new byte[IMAGE_BYTES];
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        RasterCache cache = new RasterCache(10 * IMAGE_BYTES);
+        assertEquals(0, cache.hitRatio(), 0);
+        byte[] first = image();
+        assertNull(cache.get("a"));
+        cache.put("a", first);
+        assertTrue(first == cache.get("a"));
+        assertTrue(first == cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(0.5, cache.hitRatio(), 0);
+        assertEquals(IMAGE_BYTES, cache.bytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RasterCache cache = new RasterCache(2 * IMAGE_BYTES);
+        cache.put("a", image());
+        cache.put("b", image());
+        cache.get("a");
+        cache.put("c", image());
+        assertNull(cache.get("b"));
+        assertArrayEquals(image(), cache.get("a"));
+        assertArrayEquals(image(), cache.get("c"));
+        assertEquals(2 * IMAGE_BYTES, cache.bytes());
+    }
+
+    @Test
+    public void testByteBudget() {
+        RasterCache cache = new RasterCache(2 * IMAGE_BYTES);
+        /* an image larger than the whole cache is not kept */
+        cache.put("huge", new byte[3 * IMAGE_BYTES]);
+        assertNull(cache.get("huge"));
+        assertEquals(0, cache.bytes());
+
+        /* replacing an image counts only the new one */
+        cache.put("a", image());
+        cache.put("a", new byte[2 * IMAGE_BYTES]);
+        assertEquals(2 * IMAGE_BYTES, cache.bytes());
+        /* and one that fills the cache pushes out all others */
+        cache.put("b", new byte[2 * IMAGE_BYTES]);
+        assertNull(cache.get("a"));
+        assertEquals(2 * IMAGE_BYTES, cache.bytes());
+    }
+
+    @Test
+    public void testKey() {
+        String[][] single = {{"d2_x1_y1.png"}};
+        assertEquals("d2_x1_y1.png:d2_x1_y1.png", RasterCache.key(single));
+        String[][] grid = {
+            {"d3_x2_y4.png", "d3_x3_y4.png", "d3_x4_y4.png"},
+            {"d3_x2_y5.png", "d3_x3_y5.png", "d3_x4_y5.png"},
+        };
+        assertEquals("d3_x2_y4.png:d3_x4_y5.png", RasterCache.key(grid));
+        /* the same columns one row lower are another image */
+        String[][] lower = {
+            {"d3_x2_y5.png", "d3_x3_y5.png", "d3_x4_y5.png"},
+            {"d3_x2_y6.png", "d3_x3_y6.png", "d3_x4_y6.png"},
+        };
+        assertNotEquals(RasterCache.key(grid), RasterCache.key(lower));
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRasterComposer {
+    private static final int SIDE = 8;
+
+    /* a tile named "rR_cC" is filled with a color made from its row and column */
+    private static BufferedImage tile(String name) {
+        if (name.equals("missing")) {
+            return null;
+        }
+        BufferedImage img = new BufferedImage(SIDE, SIDE, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setColor(color(name));
+        g.fillRect(0, 0, SIDE, SIDE);
+        g.dispose();
+        return img;
+    }
+
+    private static Color color(String name) {
+        String[] parts = name.substring(1).split("_c");
+        return new Color(10 * Integer.parseInt(parts[0]), 10 * Integer.parseInt(parts[1]), 99);
+    }
+
+    private static String[][] grid(int rows, int cols) {
+        String[][] grid = new String[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                grid[r][c] = "r" + r + "_c" + c;
+            }
+        }
+        return grid;
+    }
+
+    private static void assertTiles(String[][] grid, BufferedImage img) {
+        for (int r = 0; r < grid.length; r++) {
+            for (int c = 0; c < grid[0].length; c++) {
+                int expected = grid[r][c].equals("missing")
+                        ? Color.BLACK.getRGB() : color(grid[r][c]).getRGB();
+                assertEquals(expected, img.getRGB(c * SIDE + SIDE / 2, r * SIDE + SIDE / 2));
+            }
+        }
+    }
+
+    @Test
+    public void testComposeInParallel() {
+        RasterComposer composer = new RasterComposer(SIDE, TestRasterComposer::tile, 4, -1,
+                1 << 20);
+        String[][] grid = grid(5, 7);
+        BufferedImage img = composer.compose(grid);
+        assertEquals(7 * SIDE, img.getWidth());
+        assertEquals(5 * SIDE, img.getHeight());
+        assertTiles(grid, img);
+    }
+
+    @Test
+    public void testReusedBufferIsRedrawn() {
+        RasterComposer composer = new RasterComposer(SIDE, TestRasterComposer::tile, 1, -1,
+                1 << 20);
+        BufferedImage first = composer.compose(grid(2, 2));
+        composer.release(first);
+        assertTrue(composer.pooledBytes() > 0);
+
+        String[][] grid = {{"r5_c5", "missing"}, {"missing", "r6_c6"}};
+        BufferedImage second = composer.compose(grid);
+        assertTrue(first == second);
+        assertEquals(0, composer.pooledBytes());
+        assertTiles(grid, second);
+    }
+
+    @Test
+    public void testPngRoundTrip() throws IOException {
+        String[][] grid = grid(3, 3);
+        for (int level : new int[]{-1, 0, 9}) {
+            RasterComposer composer = new RasterComposer(SIDE, TestRasterComposer::tile, 2,
+                    level, 1 << 20);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            composer.writePng(composer.compose(grid), os);
+            assertTiles(grid, ImageIO.read(new ByteArrayInputStream(os.toByteArray())));
+        }
+    }
+}
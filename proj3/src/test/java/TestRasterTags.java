@@ -0,0 +1,35 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the parts of raster entity tags tell apart routes and versions of the data.
+ */
+public class TestRasterTags {
+    @Test
+    public void testRouteDigest() {
+        /* List.hashCode cannot tell these apart: both are 31 * 31 + 31 */
+        List<Long> a = Arrays.asList(0L, 31L), b = Arrays.asList(1L, 0L);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(MapServer.routeDigest(a), MapServer.routeDigest(b));
+        assertEquals(MapServer.routeDigest(a), MapServer.routeDigest(Arrays.asList(0L, 31L)));
+    }
+
+    @Test
+    public void testDataVersion() throws IOException {
+        File f = File.createTempFile("map", ".osm.xml");
+        f.deleteOnExit();
+        assertTrue(f.setLastModified(1000L * 1000));
+        String before = MapServer.dataVersion(f.getPath(), "missing");
+        assertEquals(before, MapServer.dataVersion(f.getPath(), "missing"));
+        assertTrue(f.setLastModified(2000L * 1000));
+        assertNotEquals(before, MapServer.dataVersion(f.getPath(), "missing"));
+    }
+}
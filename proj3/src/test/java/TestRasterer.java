@@ -12,6 +12,9 @@ import java.util.Map;
 import java.util.Collections;
 import java.util.StringJoiner;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -47,6 +50,33 @@ public class TestRasterer {
         }
     }
 
+    @Test
+    public void testGetMapRasterConcurrently() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<Map<String, Object>> expectedResults = resultsFromFile();
+        int numThreads = 8, rounds = 2000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int offset = t;
+            futures.add(pool.submit(() -> {
+                for (int r = 0; r < rounds; r++) {
+                    int i = (offset + r) % NUM_TESTS;
+                    Map<String, Object> actual = rasterer.getMapRaster(testParams.get(i));
+                    String msg = "Concurrent results did not match the expected results for "
+                            + "input " + mapToString(testParams.get(i)) + ".\n";
+                    checkParamsMap(msg, expectedResults.get(i), actual);
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
+        for (Future<?> f : futures) {
+            f.get(); // rethrows assertion failures from the worker threads
+        }
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
@@ -0,0 +1,50 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestRouteCache {
+    private long now;
+
+    @Test
+    public void testHitsAndMisses() {
+        RouteCache cache = new RouteCache(10, 1000, () -> now);
+        List<Long> route = Arrays.asList(1L, 2L, 3L);
+        assertNull(cache.get(1, 3));
+        cache.put(1, 3, route, Collections.emptyList());
+        assertEquals(route, cache.get(1, 3).route());
+        /* routes are directed */
+        assertNull(cache.get(3, 1));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RouteCache cache = new RouteCache(2, 1000, () -> now);
+        cache.put(1, 2, Arrays.asList(1L, 2L), Collections.emptyList());
+        cache.put(2, 3, Arrays.asList(2L, 3L), Collections.emptyList());
+        cache.get(1, 2);
+        cache.put(3, 4, Arrays.asList(3L, 4L), Collections.emptyList());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertNull(cache.get(2, 3));
+        assertEquals(Arrays.asList(1L, 2L), cache.get(1, 2).route());
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        RouteCache cache = new RouteCache(10, 1000, () -> now);
+        cache.put(1, 2, Arrays.asList(1L, 2L), Collections.emptyList());
+        now = 1000;
+        assertEquals(Arrays.asList(1L, 2L), cache.get(1, 2).route());
+        now = 1001;
+        assertNull(cache.get(1, 2));
+        assertEquals(1, cache.expirations());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,61 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRouteStore {
+    private long now;
+
+    @Test
+    public void testRoutesArePerClient() {
+        RouteStore routes = new RouteStore(1000, 10, () -> now);
+        List<Long> a = Arrays.asList(1L, 2L, 3L), b = Arrays.asList(4L, 5L);
+        routes.put("a", a);
+        routes.put("b", b);
+        assertEquals(a, routes.get("a"));
+        assertEquals(b, routes.get("b"));
+        assertTrue(routes.get("c").isEmpty());
+
+        routes.clear("a");
+        assertTrue(routes.get("a").isEmpty());
+        assertEquals(b, routes.get("b"));
+    }
+
+    @Test
+    public void testRoutesExpire() {
+        RouteStore routes = new RouteStore(1000, 10, () -> now);
+        routes.put("a", Arrays.asList(1L, 2L));
+        routes.put("b", Arrays.asList(3L, 4L));
+        now = 800;
+        assertEquals(2, routes.get("a").size());
+        now = 1500;
+        /* "a" was read at 800, so only "b" has expired */
+        assertEquals(2, routes.get("a").size());
+        assertTrue(routes.get("b").isEmpty());
+
+        routes.put("c", Arrays.asList(5L));
+        assertEquals(2, routes.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RouteStore routes = new RouteStore(1000, 2, () -> now);
+        routes.put("a", Arrays.asList(1L, 2L));
+        routes.put("b", Arrays.asList(3L, 4L));
+        /* reading "a" makes "b" the least recently used */
+        assertEquals(2, routes.get("a").size());
+        routes.put("c", Arrays.asList(5L));
+        assertEquals(2, routes.size());
+        assertEquals(2, routes.get("a").size());
+        assertTrue(routes.get("b").isEmpty());
+        assertEquals(1, routes.get("c").size());
+
+        for (int i = 0; i < 100; i++) {
+            routes.put("token" + i, Arrays.asList((long) i));
+        }
+        assertEquals(2, routes.size());
+    }
+}
@@ -63,4 +63,16 @@ public class TestRouterTiny {
         expected.add(55L);
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testBidirectionalAStarMatchesAStar() {
+        double[][] queries = {{0.2, 38.2, 0.6, 38.6}, {0.2, 38.2, 0.1, 38.1},
+            {0.4, 38.1, 0.4, 38.6}, {0.6, 38.6, 0.5, 38.5}, {0.6, 38.6, 0.6, 38.6}};
+        for (double[] q : queries) {
+            List<Long> expected = Router.shortestPath(graphTiny, q[0], q[1], q[2], q[3]);
+            List<Long> actual = Router.shortestPath(graphTiny, q[0], q[1], q[2], q[3],
+                    Router.Algorithm.BIDIRECTIONAL_ASTAR);
+            assertEquals(expected, actual);
+        }
+    }
 }
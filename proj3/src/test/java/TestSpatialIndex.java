@@ -0,0 +1,139 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the spatial index queries of GraphDB against a linear scan over all vertices,
+ * and checks their edge cases on small made-up maps.
+ */
+public class TestSpatialIndex {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int NUM_TESTS = 200;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testClosest() {
+        Random r = new Random(61);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            double lon = randomLon(r), lat = randomLat(r);
+            List<Double> distances = sortedDistances(lon, lat);
+            assertEquals(distances.get(0), distance(graph.closest(lon, lat), lon, lat), 0);
+        }
+    }
+
+    @Test
+    public void testKClosest() {
+        Random r = new Random(62);
+        int k = 10;
+        for (int i = 0; i < NUM_TESTS; i++) {
+            double lon = randomLon(r), lat = randomLat(r);
+            List<Double> distances = sortedDistances(lon, lat);
+            List<Long> actual = graph.kClosest(lon, lat, k);
+            assertEquals(k, actual.size());
+            for (int j = 0; j < k; j++) {
+                assertEquals(distances.get(j), distance(actual.get(j), lon, lat), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testWithinRadius() {
+        Random r = new Random(63);
+        double radius = 0.25;
+        for (int i = 0; i < NUM_TESTS; i++) {
+            double lon = randomLon(r), lat = randomLat(r);
+            int expected = 0;
+            for (double d : sortedDistances(lon, lat)) {
+                if (d <= radius) {
+                    expected += 1;
+                }
+            }
+            assertEquals(expected, graph.withinRadius(lon, lat, radius).size());
+        }
+    }
+
+    @Test
+    public void testEmptyIndex() throws Exception {
+        /* a node on no road is not part of the graph */
+        GraphDB g = new GraphFixtures().node(1, 0, 38).build();
+        SpatialIndex index = new SpatialIndex(g.compactGraph());
+        assertEquals(0, index.size());
+        assertEquals(-1, index.nearest(0, 38));
+        assertEquals(0, index.kNearest(0, 38, 3).length);
+        assertEquals(0, index.withinRadius(0, 38, 100).length);
+    }
+
+    @Test
+    public void testSmallMap() throws Exception {
+        /* 1, 2 and 3 are at the same place, so splits on them tie */
+        GraphDB g = new GraphFixtures()
+                .node(1, 0.000, 38.000).node(2, 0.000, 38.000).node(3, 0.000, 38.000)
+                .node(4, 0.001, 38.001).node(5, 0.002, 37.999).node(6, -0.003, 38.002)
+                .way(1, 1, 2, 3, 4, 5, 6).build();
+        Long[] all = {1L, 2L, 3L, 4L, 5L, 6L};
+
+        /* asking for more vertices than there are returns them all, closest first */
+        List<Long> nearest = g.kClosest(0, 38, 10);
+        assertEquals(new HashSet<>(Arrays.asList(all)), new HashSet<>(nearest));
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)),
+                new HashSet<>(nearest.subList(0, 3)));
+        for (int i = 1; i < nearest.size(); i++) {
+            long v = nearest.get(i - 1), w = nearest.get(i);
+            assertTrue(GraphDB.distance(0, 38, g.lon(v), g.lat(v))
+                    <= GraphDB.distance(0, 38, g.lon(w), g.lat(w)));
+        }
+
+        /* a zero radius holds only the vertices right at the point */
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)),
+                new HashSet<>(g.withinRadius(0, 38, 0)));
+        /* and a vertex exactly on the radius is in range */
+        double toFive = GraphDB.distance(0, 38, g.lon(5), g.lat(5));
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 5L)),
+                new HashSet<>(g.withinRadius(0, 38, toFive)));
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L)),
+                new HashSet<>(g.withinRadius(0, 38, Math.nextDown(toFive))));
+        long closest = g.closest(0, 38);
+        assertTrue(closest >= 1 && closest <= 3);
+    }
+
+    private static double randomLon(Random r) {
+        double width = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+        return MapServer.ROOT_ULLON + r.nextDouble() * width;
+    }
+
+    private static double randomLat(Random r) {
+        double height = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+        return MapServer.ROOT_LRLAT + r.nextDouble() * height;
+    }
+
+    private static double distance(long id, double lon, double lat) {
+        return GraphDB.distance(lon, lat, graph.lon(id), graph.lat(id));
+    }
+
+    private static List<Double> sortedDistances(double lon, double lat) {
+        List<Double> distances = new ArrayList<>();
+        for (long id : graph.vertices()) {
+            distances.add(distance(id, lon, lat));
+        }
+        distances.sort(null);
+        return distances;
+    }
+}
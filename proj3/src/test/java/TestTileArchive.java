@@ -0,0 +1,88 @@
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Packs a small made-up pyramid and checks every tile reads back byte for byte.
+ */
+public class TestTileArchive {
+    private static final int MAX_DEPTH = 2;
+    private static final int TILE_SIZE = 16;
+
+    @Test
+    public void testPackAndRead() throws IOException {
+        File imgRoot = Files.createTempDirectory("tiles").toFile();
+        File archive = new File(imgRoot, "tiles.archive");
+        Random r = new Random(23);
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            for (int x = 0; x < 1 << depth; x++) {
+                for (int y = 0; y < 1 << depth; y++) {
+                    /* one missing tile, to check it stays missing */
+                    if (depth == MAX_DEPTH && x == 1 && y == 2) {
+                        continue;
+                    }
+                    BufferedImage img = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                            BufferedImage.TYPE_INT_RGB);
+                    img.setRGB(r.nextInt(TILE_SIZE), r.nextInt(TILE_SIZE), r.nextInt());
+                    ImageIO.write(img, "png", new File(imgRoot, name(depth, x, y)));
+                }
+            }
+        }
+        assertTrue(new File(imgRoot, "notes.txt").createNewFile());
+
+        assertEquals(1 + 4 + 16 - 1, TileArchive.pack(imgRoot.getPath(), archive.getPath()));
+        TileArchive tiles = TileArchive.open(archive.getPath());
+        assertNotNull(tiles);
+        assertEquals(MAX_DEPTH, tiles.maxDepth());
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            for (int x = 0; x < 1 << depth; x++) {
+                for (int y = 0; y < 1 << depth; y++) {
+                    String name = name(depth, x, y);
+                    File f = new File(imgRoot, name);
+                    if (!f.exists()) {
+                        assertNull(tiles.tile(name));
+                        assertNull(tiles.read(name));
+                        continue;
+                    }
+                    ByteBuffer tile = tiles.tile(depth, x, y);
+                    byte[] bytes = new byte[tile.remaining()];
+                    tile.get(bytes);
+                    assertArrayEquals(Files.readAllBytes(f.toPath()), bytes);
+                    BufferedImage expected = ImageIO.read(f), img = tiles.read(name);
+                    assertArrayEquals(
+                            expected.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE),
+                            img.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE));
+                }
+            }
+        }
+        assertNull(tiles.tile(MAX_DEPTH + 1, 0, 0));
+        assertNull(tiles.tile(1, 2, 0));
+        assertNull(tiles.tile("notes.txt"));
+        assertNull(TileArchive.open(new File(imgRoot, name(0, 0, 0)).getPath()));
+    }
+
+    @Test
+    public void testParseName() {
+        assertArrayEquals(new int[]{3, 5, 2}, TileArchive.parseName("d3_x5_y2.png"));
+        assertNull(TileArchive.parseName("d1_x2_y0.png"));
+        assertNull(TileArchive.parseName("d1_y0_x0.png"));
+        assertNull(TileArchive.parseName("dx_x0_y0.png"));
+        assertNull(TileArchive.parseName("d0_x0_y0.jpg"));
+    }
+
+    private static String name(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+}
@@ -0,0 +1,55 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestTileCache {
+    /* a 16x16 TYPE_INT_RGB image takes up 1024 bytes */
+    private static final int SIDE = 16;
+    private static final long IMAGE_BYTES = SIDE * SIDE * 4;
+
+    private static BufferedImage load(String path) {
+        if (path.startsWith("missing")) {
+            return null;
+        }
+        return new BufferedImage(SIDE, SIDE, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        TileCache cache = new TileCache(10 * IMAGE_BYTES, TestTileCache::load);
+        BufferedImage first = cache.get("d1_x0_y0.png");
+        assertTrue(first == cache.get("d1_x0_y0.png"));
+        cache.get("d1_x1_y0.png");
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(2 * IMAGE_BYTES, cache.bytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        TileCache cache = new TileCache(2 * IMAGE_BYTES, TestTileCache::load);
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(1, cache.evictions());
+        assertEquals(2 * IMAGE_BYTES, cache.bytes());
+    }
+
+    @Test
+    public void testMissingImagesAreNotCached() {
+        TileCache cache = new TileCache(2 * IMAGE_BYTES, TestTileCache::load);
+        assertNull(cache.get("missing.png"));
+        assertNull(cache.get("missing.png"));
+        assertEquals(2, cache.misses());
+        assertEquals(0, cache.size());
+    }
+}
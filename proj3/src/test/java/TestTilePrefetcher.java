@@ -0,0 +1,92 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which tiles are predicted from a pan or a zoom, and that a full queue drops old
+ * predictions instead of blocking.
+ */
+public class TestTilePrefetcher {
+    private static final int MAX_DEPTH = 7;
+
+    private static TilePrefetcher.Viewport viewport(int depth, int left, int right, int upper,
+                                                    int lower) {
+        return new TilePrefetcher.Viewport(depth, left, right, upper, lower);
+    }
+
+    @Test
+    public void testRingAndNextDepth() {
+        /* 2x2 tiles at depth 3: a 4x4 ring around them, then 2x2 tiles at depth 4 */
+        List<String> names = TilePrefetcher.predict(null, viewport(3, 2, 3, 4, 5), MAX_DEPTH);
+        assertEquals(12 + 4, names.size());
+        assertEquals(new HashSet<>(names).size(), names.size());
+        assertTrue(names.containsAll(Arrays.asList("d3_x1_y3.png", "d3_x4_y6.png",
+                "d3_x2_y3.png", "d3_x4_y4.png")));
+        assertEquals(new HashSet<>(Arrays.asList("d4_x5_y9.png", "d4_x6_y9.png",
+                "d4_x5_y10.png", "d4_x6_y10.png")), new HashSet<>(names.subList(12, 16)));
+    }
+
+    @Test
+    public void testPanAhead() {
+        /* panned one tile right: the two columns to the right come first */
+        List<String> names = TilePrefetcher.predict(viewport(3, 1, 2, 4, 5),
+                viewport(3, 2, 3, 4, 5), MAX_DEPTH);
+        Set<String> ahead = new HashSet<>(names.subList(0, 4));
+        assertTrue(ahead.containsAll(Arrays.asList("d3_x5_y4.png", "d3_x5_y5.png")));
+        assertTrue(names.contains("d3_x5_y3.png"));
+        assertFalse(names.contains("d3_x0_y4.png"));
+        assertTrue(names.indexOf("d3_x1_y4.png") > names.indexOf("d3_x2_y3.png"));
+    }
+
+    @Test
+    public void testZoomOutAndEdges() {
+        /* zooming out from depth 1 predicts the root; the ring stops at the map edge */
+        List<String> names = TilePrefetcher.predict(viewport(2, 0, 1, 0, 1),
+                viewport(1, 0, 0, 0, 0), MAX_DEPTH);
+        assertEquals(Arrays.asList("d1_x1_y0.png", "d1_x0_y1.png", "d1_x1_y1.png",
+                "d0_x0_y0.png"), names);
+        /* nothing deeper than the deepest depth */
+        names = TilePrefetcher.predict(null, viewport(MAX_DEPTH, 0, 0, 0, 0), MAX_DEPTH);
+        assertEquals(3, names.size());
+    }
+
+    @Test
+    public void testLoadsAndDrops() throws InterruptedException {
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        TilePrefetcher prefetcher = new TilePrefetcher(name -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            loaded.add(name);
+        }, loaded::contains, MAX_DEPTH, 1, 2);
+
+        /* the single thread blocks on the first tile, so the rest pile up in the queue */
+        String[][] grid = {{"d3_x2_y4.png", "d3_x3_y4.png"}, {"d3_x2_y5.png", "d3_x3_y5.png"}};
+        prefetcher.viewed("client", grid);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(16, prefetcher.submitted());
+        assertEquals(2, prefetcher.queued());
+        assertEquals(16 - 1 - 2, prefetcher.dropped());
+
+        release.countDown();
+        prefetcher.shutdown();
+        for (int i = 0; i < 100 && loaded.size() < 3; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(loaded.size() >= 1);
+    }
+}
@@ -0,0 +1,156 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the edge index against a scan of all edges, and that rendered tiles are drawn
+ * once, even when asked for at once, and then read back from the cache folder of the
+ * same map only.
+ */
+public class TestTileRenderer {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int NUM_TESTS = 200;
+    private static final double MAX_BOX_SIZE = 0.01;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testEdgeIndex() {
+        CompactGraph cg = graph.compactGraph();
+        EdgeIndex index = new EdgeIndex(cg, MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, 64);
+        Random r = new Random(24);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            double west = MapServer.ROOT_ULLON
+                    + r.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+            double north = MapServer.ROOT_LRLAT
+                    + r.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+            double east = west + r.nextDouble() * MAX_BOX_SIZE;
+            double south = north - r.nextDouble() * MAX_BOX_SIZE;
+
+            Set<Integer> found = new HashSet<>();
+            index.forEachEdge(west, north, east, south, e -> assertTrue(found.add(e)));
+            for (int v = 0; v < cg.numVertices(); v++) {
+                for (int e = cg.edgeBegin(v); e < cg.edgeEnd(v); e++) {
+                    int w = cg.target(e);
+                    if (v < w && Math.max(cg.lon(v), cg.lon(w)) >= west
+                            && Math.min(cg.lon(v), cg.lon(w)) <= east
+                            && Math.max(cg.lat(v), cg.lat(w)) >= south
+                            && Math.min(cg.lat(v), cg.lat(w)) <= north) {
+                        assertTrue(found.contains(e));
+                        assertEquals(v, index.source(e));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDiskCache() throws IOException {
+        File cacheDir = Files.createTempDirectory("rendered").toFile();
+        TileRenderer renderer = new TileRenderer(graph.compactGraph(), MapServer.ROOT_ULLON,
+                MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT,
+                MapServer.TILE_SIZE, cacheDir.getPath(), "1");
+        String name = "d9_x250_y260.png";
+        BufferedImage drawn = renderer.tile(name);
+        assertEquals(MapServer.TILE_SIZE, drawn.getWidth());
+        assertEquals(MapServer.TILE_SIZE, drawn.getHeight());
+        assertEquals(1, renderer.rendered());
+
+        BufferedImage read = renderer.tile(name);
+        assertEquals(1, renderer.rendered());
+        assertEquals(1, renderer.diskHits());
+        for (int y = 0; y < MapServer.TILE_SIZE; y++) {
+            for (int x = 0; x < MapServer.TILE_SIZE; x++) {
+                assertEquals(drawn.getRGB(x, y), read.getRGB(x, y));
+            }
+        }
+        assertNull(renderer.tile("d9_x250_y260.jpg"));
+    }
+
+    @Test
+    public void testDataVersion() throws IOException {
+        GraphDB g = smallMap();
+        File cacheDir = Files.createTempDirectory("rendered").toFile();
+        String name = "d9_x250_y260.png";
+        TileRenderer first = renderer(g, cacheDir, "1");
+        first.tile(name);
+        assertEquals(1, first.rendered());
+
+        /* tiles of the same map are read back, those of another map are drawn anew */
+        TileRenderer same = renderer(g, cacheDir, "1");
+        same.tile(name);
+        assertEquals(0, same.rendered());
+        assertEquals(1, same.diskHits());
+        TileRenderer other = renderer(g, cacheDir, "2");
+        other.tile(name);
+        assertEquals(1, other.rendered());
+        assertEquals(0, other.diskHits());
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        TileRenderer renderer = renderer(smallMap(),
+                Files.createTempDirectory("rendered").toFile(), "1");
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<BufferedImage>> tiles = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tiles.add(executor.submit(() -> {
+                start.await();
+                return renderer.tile("d10_x500_y520.png");
+            }));
+        }
+        start.countDown();
+        for (Future<BufferedImage> tile : tiles) {
+            assertNotNull(tile.get());
+        }
+        executor.shutdown();
+        /* every other request shared the drawing or read it back from disk */
+        assertEquals(1, renderer.rendered());
+    }
+
+    private static TileRenderer renderer(GraphDB g, File cacheDir, String dataVersion) {
+        return new TileRenderer(g.compactGraph(), MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, MapServer.TILE_SIZE,
+                cacheDir.getPath(), dataVersion);
+    }
+
+    /* a few roads across the middle of the map */
+    private static GraphDB smallMap() throws IOException {
+        double lon = (MapServer.ROOT_ULLON + MapServer.ROOT_LRLON) / 2;
+        double lat = (MapServer.ROOT_ULLAT + MapServer.ROOT_LRLAT) / 2;
+        return new GraphFixtures()
+                .node(1, lon - 0.01, lat).node(2, lon + 0.01, lat)
+                .node(3, lon, lat - 0.01).node(4, lon, lat + 0.01)
+                .way(1, 1, 2).way(2, "primary", null, 3, 4).build();
+    }
+}
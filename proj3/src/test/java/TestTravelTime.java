@@ -0,0 +1,79 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks speed limit parsing, and fastest routes on a small made-up map and on the
+ * Berkeley map.
+ */
+public class TestTravelTime {
+    private static final double TIME_THRESHOLD = 0.000001;
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int NUM_TESTS = 50;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testSpeedOf() {
+        assertEquals(25, GraphBuildingHandler.speedOf("residential", null), TIME_THRESHOLD);
+        assertEquals(25, GraphBuildingHandler.speedOf("primary", "25 mph"), TIME_THRESHOLD);
+        assertEquals(50 * GraphBuildingHandler.MPH_PER_KMH,
+                GraphBuildingHandler.speedOf("primary", "50"), TIME_THRESHOLD);
+        assertEquals(30, GraphBuildingHandler.speedOf("primary", "30;40 mph"), TIME_THRESHOLD);
+        assertEquals(65, GraphBuildingHandler.speedOf("motorway", "none"), TIME_THRESHOLD);
+        assertEquals(GraphBuildingHandler.FALLBACK_SPEED_MPH,
+                GraphBuildingHandler.speedOf(null, null), TIME_THRESHOLD);
+    }
+
+    @Test
+    public void testDetourIsFaster() throws Exception {
+        /* 1-2-4 is short but slow, 1-3-4 is a longer way round on a motorway */
+        GraphDB g = new GraphFixtures()
+                .node(1, 0.000, 38.0).node(2, 0.002, 38.0005).node(4, 0.004, 38.0)
+                .node(3, 0.002, 38.003)
+                .way(1, "residential", "10 mph", 1, 2, 4)
+                .way(2, "motorway", "60 mph", 1, 3, 4).build();
+        List<Long> fastest = Arrays.asList(1L, 3L, 4L), shortest = Arrays.asList(1L, 2L, 4L);
+        assertTrue(GraphFixtures.time(g, fastest) < GraphFixtures.time(g, shortest));
+        assertTrue(GraphFixtures.length(g, shortest) < GraphFixtures.length(g, fastest));
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            assertEquals(fastest, Router.search(g, 1, 4, algorithm, Metric.TIME).path());
+            assertEquals(shortest, Router.search(g, 1, 4, algorithm, Metric.DISTANCE).path());
+        }
+    }
+
+    @Test
+    public void testFastestRoutes() {
+        Random r = new Random(21);
+        CompactGraph cg = graph.compactGraph();
+        for (int i = 0; i < NUM_TESTS; i++) {
+            long start = cg.id(r.nextInt(cg.numVertices()));
+            long dest = cg.id(r.nextInt(cg.numVertices()));
+            double expected = GraphFixtures.time(graph, Router.search(graph, start, dest,
+                    Router.Algorithm.ASTAR, Metric.TIME).path());
+            for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+                List<Long> path = Router.search(graph, start, dest, algorithm,
+                        Metric.TIME).path();
+                assertEquals(expected, GraphFixtures.time(graph, path), TIME_THRESHOLD);
+            }
+            List<Long> shortest = Router.search(graph, start, dest, Router.Algorithm.ASTAR,
+                    Metric.DISTANCE).path();
+            assertTrue(expected <= GraphFixtures.time(graph, shortest) + TIME_THRESHOLD);
+        }
+    }
+}